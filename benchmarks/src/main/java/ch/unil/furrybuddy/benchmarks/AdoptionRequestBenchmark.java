@@ -0,0 +1,67 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.AdoptionRequest;
+import ch.unil.furrybuddy.rest.ServiceResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// addAdoptionRequest straight on ApplicationState, and through ServiceResource.createAdoptionRequest which
+// also looks up the adopter and the advertisement. The catalog is rebuilt every iteration because each call adds a request.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class AdoptionRequestBenchmark {
+
+    @Param({"10000", "100000"})
+    public int advertisements;
+
+    private Fixtures fixtures;
+    private ServiceResource service;
+
+    @Setup(Level.Iteration)
+    public void setup() throws ReflectiveOperationException {
+        fixtures = Fixtures.generate(advertisements, 42);
+        service = Resources.inject(new ServiceResource(), fixtures.state);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final Random random = new Random();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AdoptionRequest addAdoptionRequest(ThreadRandom thread) {
+        return fixtures.state.addAdoptionRequest(fixtures.newAdoptionRequest(thread.random));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public AdoptionRequest addAdoptionRequestContended(ThreadRandom thread) {
+        return fixtures.state.addAdoptionRequest(fixtures.newAdoptionRequest(thread.random));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AdoptionRequest createAdoptionRequest(ThreadRandom thread) {
+        var request = fixtures.newAdoptionRequest(thread.random);
+        return service.createAdoptionRequest(request, request.getAdopter().getUserID(), null).toCompletableFuture().join();
+    }
+}
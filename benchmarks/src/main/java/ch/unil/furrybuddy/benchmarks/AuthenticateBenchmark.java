@@ -0,0 +1,55 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticateBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int advertisements;
+
+    private Fixtures fixtures;
+
+    @Setup
+    public void setup() {
+        fixtures = Fixtures.generate(advertisements, 42);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UUID authenticate() {
+        return authenticateRandomAdopter();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public UUID authenticateContended() {
+        return authenticateRandomAdopter();
+    }
+
+    private UUID authenticateRandomAdopter() {
+        var emails = fixtures.adopterEmails;
+        var email = emails.get(ThreadLocalRandom.current().nextInt(emails.size()));
+        return fixtures.state.authenticate(email, Fixtures.PASSWORD, false);
+    }
+}
@@ -0,0 +1,93 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.Pet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Pets created one call at a time against the same pets applied as one batch, in memory and with the journal on.
+// Scores are pets per second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class BulkBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"memory", "wal"})
+    public String journal;
+
+    private Path directory;
+    private ApplicationState state;
+    private List<Pet> pets;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        if (journal.equals("wal")) {
+            directory = JournalBenchmark.newDirectory();
+            System.setProperty("furrybuddy.wal.dir", directory.toString());
+        }
+        state = new ApplicationState();
+        state.init();
+    }
+
+    @Setup(Level.Invocation)
+    public void pets() {
+        var random = new Random();
+        pets = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            pets.add(Fixtures.pet(random, i));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        state.close();
+        if (directory != null) {
+            System.clearProperty("furrybuddy.wal.dir");
+            JournalBenchmark.delete(directory);
+            directory = null;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void oneByOne() {
+        for (var pet : pets) {
+            state.addPet(pet);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object batch() {
+        var changes = new ArrayList<Supplier<Pet>>(BATCH);
+        for (var pet : pets) {
+            changes.add(() -> state.addPet(pet));
+        }
+        return state.applyBatch(changes);
+    }
+}
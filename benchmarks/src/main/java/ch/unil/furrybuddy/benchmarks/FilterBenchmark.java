@@ -0,0 +1,91 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.Advertisement;
+import ch.unil.furrybuddy.domain.AdvertisementFacets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// filterAdvertisements and its facet counts over catalogs of growing size, from queries matching everything to ones
+// matching a handful
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class FilterBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int advertisements;
+
+    // all: no criteria (~100%), species: Dog (~45%), compatibility: kids + families (~25%),
+    // breed: Cat/Bengal (~4%), narrow: Rabbit/Rex, female, kids (~0.4%),
+    // near: dogs of the 20 nearest owners around Lausanne (1004), nearby: dogs within 30 km of it
+    @Param({"all", "species", "compatibility", "breed", "narrow", "near", "nearby"})
+    public String selectivity;
+
+    private Fixtures fixtures;
+    private String species;
+    private String breed;
+    private String gender;
+    private List<String> compatibility;
+    private String near;
+    private double radius = Double.POSITIVE_INFINITY;
+    private int limit = 20;
+
+    @Setup
+    public void setup() {
+        fixtures = Fixtures.generate(advertisements, 42);
+        switch (selectivity) {
+            case "species" -> species = "Dog";
+            case "compatibility" -> compatibility = List.of("kids", "family");
+            case "breed" -> {
+                species = "Cat";
+                breed = "Bengal";
+            }
+            case "narrow" -> {
+                species = "Rabbit";
+                breed = "Rex";
+                gender = "female";
+                compatibility = List.of("kids");
+            }
+            case "near" -> {
+                species = "Dog";
+                near = "1004";
+            }
+            case "nearby" -> {
+                species = "Dog";
+                near = "1004";
+                radius = 30;
+                limit = 1000;
+            }
+            default -> compatibility = List.of();
+        }
+    }
+
+    @Benchmark
+    public List<Advertisement> filter() {
+        if (near != null) {
+            return fixtures.state.filterAdvertisements(species, breed, gender, compatibility, near, radius, limit);
+        }
+        return fixtures.state.filterAdvertisements(species, breed, gender, compatibility);
+    }
+
+    // The counts shown next to the same filter
+    @Benchmark
+    public AdvertisementFacets facets() {
+        return fixtures.state.getAdvertisementFacets(species, breed, gender, compatibility);
+    }
+}
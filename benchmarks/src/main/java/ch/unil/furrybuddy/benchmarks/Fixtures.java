@@ -0,0 +1,143 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.Adopter;
+import ch.unil.furrybuddy.domain.AdoptionRequest;
+import ch.unil.furrybuddy.domain.Advertisement;
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.Location;
+import ch.unil.furrybuddy.domain.Passwords;
+import ch.unil.furrybuddy.domain.Pet;
+import ch.unil.furrybuddy.domain.PetOwner;
+import ch.unil.furrybuddy.domain.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+// Synthetic data in the shape of populateApplicationState, scaled to any number of advertisements.
+// Everything derives from the seed, so two runs with the same arguments build the same catalog.
+public final class Fixtures {
+
+    // The password every generated user gets
+    public static final String PASSWORD = "password";
+    // hashed once: hashing it for each of thousands of users would dominate the setup
+    private static final String PASSWORD_HASH = Passwords.hash(PASSWORD);
+
+    static final String[] SPECIES = {"Dog", "Cat", "Rabbit", "Bird"};
+    // roughly how people list pets: mostly dogs and cats
+    private static final int[] SPECIES_WEIGHTS = {45, 35, 12, 8};
+    static final String[][] BREEDS = {
+            {"Labrador", "Shih-tzu", "Beagle", "Poodle", "Husky", "Boxer", "Dachshund", "Border Collie", "Pug", "Mixed"},
+            {"Siamese", "Persian", "Maine Coon", "Bengal", "Sphynx", "Ragdoll", "European", "Mixed"},
+            {"Dwarf", "Lop", "Rex", "Angora"},
+            {"Budgie", "Canary", "Cockatiel"}
+    };
+    static final String[] TRAITS = {"cheerful", "calm", "playful", "shy", "energetic", "gentle", "curious", "loyal",
+            "lazy", "friendly", "affectionate", "independent", "vocal", "quiet", "house-trained", "anxious"};
+    // most pets have nothing to report
+    private static final String[] HEALTH_NOTES = {"None", "None", "None", "None", "None", "None", "None", "None",
+            "Blind in one eye", "Deaf", "Diabetic, needs insulin twice a day", "Allergic to chicken", "Arthritis in the hips"};
+    private static final String[] CITIES = {"Lausanne", "Geneva", "Zurich", "Bern", "Basel", "Paris", "Lyon"};
+    // the first postcode of each city and how many follow it
+    private static final int[][] POSTCODES = {{1003, 16}, {1201, 9}, {8001, 57}, {3004, 27}, {4001, 58}, {75001, 20}, {69001, 9}};
+
+    public final ApplicationState state;
+    public final List<UUID> petOwnerIDs = new ArrayList<>();
+    public final List<UUID> adopterIDs = new ArrayList<>();
+    public final List<String> adopterEmails = new ArrayList<>();
+    public final List<UUID> petIDs = new ArrayList<>();
+    public final List<UUID> advertisementIDs = new ArrayList<>();
+    public final List<UUID> adoptionRequestIDs = new ArrayList<>();
+
+    private Fixtures(ApplicationState state) {
+        this.state = state;
+    }
+
+    // One owner per 10 advertisements, one adopter per 5, two requests per advertisement
+    public static Fixtures generate(int advertisements, long seed) {
+        return generate(new ApplicationState(), advertisements, seed);
+    }
+
+    // For a state whose system properties (journal, storage) the caller has already set
+    public static Fixtures generate(ApplicationState state, int advertisements, long seed) {
+        state.init();
+        var fixtures = new Fixtures(state);
+        var random = new Random(seed);
+
+        for (int i = 0; i < Math.max(1, advertisements / 10); i++) {
+            var petOwner = state.addPetOwner(new PetOwner("owner" + i + "@furrybuddy.test", PASSWORD_HASH,
+                    "Owner" + i, "Test", location(random, i), User.Role.PET_OWNER));
+            fixtures.petOwnerIDs.add(petOwner.getUserID());
+        }
+        for (int i = 0; i < Math.max(1, advertisements / 5); i++) {
+            var email = "adopter" + i + "@furrybuddy.test";
+            var adopter = state.addAdopter(new Adopter(email, PASSWORD_HASH,
+                    "Adopter" + i, "Test", location(random, i), User.Role.ADOPTER));
+            fixtures.adopterIDs.add(adopter.getUserID());
+            fixtures.adopterEmails.add(email);
+        }
+        for (int i = 0; i < advertisements; i++) {
+            var pet = state.addPet(pet(random, i));
+            fixtures.petIDs.add(pet.getPetID());
+            var petOwner = state.getPetOwner(fixtures.petOwnerIDs.get(random.nextInt(fixtures.petOwnerIDs.size())));
+            var advertisement = state.addAdvertisement(petOwner.createAdvertisement(pet));
+            fixtures.advertisementIDs.add(advertisement.getAdvertisementID());
+        }
+        for (int i = 0; i < advertisements * 2; i++) {
+            var request = fixtures.newAdoptionRequest(random);
+            fixtures.adoptionRequestIDs.add(state.addAdoptionRequest(request).getRequestID());
+        }
+        return fixtures;
+    }
+
+    public AdoptionRequest newAdoptionRequest(Random random) {
+        var adopter = state.getAdopter(adopterIDs.get(random.nextInt(adopterIDs.size())));
+        Advertisement advertisement = state.getAdvertisement(advertisementIDs.get(random.nextInt(advertisementIDs.size())));
+        return adopter.createAdoptionRequest(advertisement, "Hello, I would love to meet " + advertisement.getPet().getName());
+    }
+
+    public static Pet pet(Random random, int i) {
+        int species = pick(random, SPECIES_WEIGHTS);
+        var breeds = BREEDS[species];
+        var description = "A " + TRAITS[random.nextInt(TRAITS.length)] + " and " + TRAITS[random.nextInt(TRAITS.length)]
+                + " " + SPECIES[species].toLowerCase(Locale.ROOT) + ", generated pet number " + i;
+        return new Pet("Pet" + i,
+                SPECIES[species],
+                breeds[random.nextInt(breeds.length)],
+                random.nextBoolean(),
+                random.nextBoolean() ? Pet.Gender.MALE : Pet.Gender.FEMALE,
+                description,
+                random.nextBoolean(),
+                random.nextBoolean(),
+                random.nextBoolean(),
+                random.nextBoolean(),
+                1 + random.nextInt(15),
+                50.0 + random.nextInt(20) * 25.0,
+                random.nextBoolean(),
+                random.nextBoolean(),
+                HEALTH_NOTES[random.nextInt(HEALTH_NOTES.length)]);
+    }
+
+    private static Location location(Random random, int i) {
+        int city = random.nextInt(CITIES.length);
+        var postcodes = POSTCODES[city];
+        return new Location(CITIES[city], String.valueOf(postcodes[0] + random.nextInt(postcodes[1])), "Street " + i);
+    }
+
+    private static int pick(Random random, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int roll = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            roll -= weights[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+}
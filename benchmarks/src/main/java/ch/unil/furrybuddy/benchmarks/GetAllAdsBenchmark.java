@@ -0,0 +1,61 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.Advertisement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// getAllAds as the list endpoints use it: walking the whole map, and reading one page after a cursor
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class GetAllAdsBenchmark {
+
+    private static final int PAGE = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    public int advertisements;
+
+    private Fixtures fixtures;
+
+    @Setup
+    public void setup() {
+        fixtures = Fixtures.generate(advertisements, 42);
+    }
+
+    @Benchmark
+    public void walkAll(Blackhole blackhole) {
+        for (Advertisement advertisement : fixtures.state.getAllAds().values()) {
+            blackhole.consume(advertisement);
+        }
+    }
+
+    @Benchmark
+    public void page(Blackhole blackhole) {
+        var ids = fixtures.advertisementIDs;
+        UUID cursor = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        int count = 0;
+        for (Advertisement advertisement : fixtures.state.getAllAds().tailMap(cursor, false).values()) {
+            blackhole.consume(advertisement);
+            if (++count == PAGE) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.Pet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// The write-ahead log: how many journaled writes per second it sustains, and how long a restart takes
+// when the state comes back from the log alone or from a snapshot plus a short tail of log.
+// Put the journal directory on the disk the service would use with -Dbenchmark.dir=<path>.
+public class JournalBenchmark {
+
+    private static final String WAL_DIR = "furrybuddy.wal.dir";
+    private static final String SNAPSHOT_EVERY = "furrybuddy.wal.snapshotEvery";
+
+    static Path newDirectory() throws IOException {
+        var parent = Path.of(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir")));
+        return Files.createTempDirectory(parent, "furrybuddy-wal");
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+        private Path directory;
+        private ApplicationState state;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            directory = newDirectory();
+            System.setProperty(WAL_DIR, directory.toString());
+            state = new ApplicationState();
+            state.init();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            state.close();
+            System.clearProperty(WAL_DIR);
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final Random random = new Random();
+    }
+
+    // each call returns once its record is on disk, so more threads means bigger group commits
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    @Threads(1)
+    public Pet write(Writes writes, ThreadRandom thread) {
+        return writes.state.addPet(Fixtures.pet(thread.random, 0));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    @Threads(16)
+    public Pet writeContended(Writes writes, ThreadRandom thread) {
+        return writes.state.addPet(Fixtures.pet(thread.random, 0));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"10000", "100000"})
+        public int advertisements;
+
+        // log: every change is replayed; snapshot: a snapshot every 10000 changes, so only the tail is replayed
+        @Param({"log", "snapshot"})
+        public String from;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            directory = newDirectory();
+            System.setProperty(WAL_DIR, directory.toString());
+            System.setProperty(SNAPSHOT_EVERY, from.equals("snapshot") ? "10000" : String.valueOf(Integer.MAX_VALUE));
+            Fixtures.generate(new ApplicationState(), advertisements, 42).state.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            System.clearProperty(WAL_DIR);
+            System.clearProperty(SNAPSHOT_EVERY);
+            JournalBenchmark.delete(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    public ApplicationState startup(Recovery recovery) {
+        var state = new ApplicationState();
+        state.init();
+        // closing only stops the flusher; it writes nothing, so every iteration recovers the same files
+        state.close();
+        return state;
+    }
+}
@@ -0,0 +1,59 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.rest.Authenticator;
+import ch.unil.furrybuddy.rest.LoginResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Logins through Authenticator: sessionSeconds=0 hashes on every call, 300 answers repeat logins from the
+// session cache once each adopter has logged in once. 8 clients share the hashing pool.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoginBenchmark {
+
+    @Param({"0", "300"})
+    public String sessionSeconds;
+
+    private Fixtures fixtures;
+    private Authenticator authenticator;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        fixtures = Fixtures.generate(1000, 42);
+        System.setProperty(Authenticator.SESSION_SECONDS_PROPERTY, sessionSeconds);
+        authenticator = Resources.inject(new Authenticator(), fixtures.state);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        authenticator.close();
+        System.clearProperty(Authenticator.SESSION_SECONDS_PROPERTY);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public LoginResult login() {
+        var emails = fixtures.adopterEmails;
+        var email = emails.get(ThreadLocalRandom.current().nextInt(emails.size()));
+        return authenticator.login(email, Fixtures.PASSWORD, "adopter").toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,102 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.AdoptionRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Readers and writers on one ApplicationState at the same time; JMH reports each side of the group separately.
+// readHeavy runs 7 readers against 1 writer, balanced 4 against 4.
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class MixedWorkloadBenchmark {
+
+    @Param({"100000"})
+    public int advertisements;
+
+    private Fixtures fixtures;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        fixtures = Fixtures.generate(advertisements, 42);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final Random random = new Random();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(7)
+    public Object readHeavyRead(ThreadRandom thread) {
+        return read(thread.random);
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public Object readHeavyWrite(ThreadRandom thread) {
+        return write(thread.random);
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public Object balancedRead(ThreadRandom thread) {
+        return read(thread.random);
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public Object balancedWrite(ThreadRandom thread) {
+        return write(thread.random);
+    }
+
+    // lookups by ID most of the time, now and then a filter
+    private Object read(Random random) {
+        int roll = random.nextInt(10);
+        if (roll == 0) {
+            return fixtures.state.filterAdvertisements(Fixtures.SPECIES[random.nextInt(Fixtures.SPECIES.length)],
+                    null, null, List.of("kids"));
+        }
+        if (roll < 4) {
+            return fixtures.state.getPet(pick(random, fixtures.petIDs));
+        }
+        return fixtures.state.getAdvertisement(pick(random, fixtures.advertisementIDs));
+    }
+
+    // what the service does on create and update: a new request or an edited pet, which re-indexes its advertisement
+    private Object write(Random random) {
+        if (random.nextBoolean()) {
+            AdoptionRequest request = fixtures.newAdoptionRequest(random);
+            return fixtures.state.addAdoptionRequest(request);
+        }
+        return fixtures.state.setPet(pick(random, fixtures.petIDs), Fixtures.pet(random, random.nextInt(1000)));
+    }
+
+    private static UUID pick(Random random, List<UUID> ids) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+}
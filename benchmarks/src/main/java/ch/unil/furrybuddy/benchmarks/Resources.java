@@ -0,0 +1,31 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import jakarta.enterprise.event.Event;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+
+// Stands in for CDI: the resources get their ApplicationState, and events go nowhere
+final class Resources {
+
+    private static final Event<?> NO_EVENTS = (Event<?>) Proxy.newProxyInstance(Event.class.getClassLoader(),
+            new Class<?>[]{Event.class},
+            (proxy, method, args) -> method.getName().equals("fireAsync") ? CompletableFuture.completedFuture(args[0]) : null);
+
+    private Resources() {
+    }
+
+    static <T> T inject(T resource, ApplicationState state) throws ReflectiveOperationException {
+        var field = resource.getClass().getDeclaredField("state");
+        field.setAccessible(true);
+        field.set(resource, state);
+        for (var other : resource.getClass().getDeclaredFields()) {
+            if (other.getType() == Event.class) {
+                other.setAccessible(true);
+                other.set(resource, NO_EVENTS);
+            }
+        }
+        return resource;
+    }
+}
@@ -0,0 +1,46 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.Advertisement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// searchAdvertisements for the first page of results, from a rare term to terms found in nearly every advertisement
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SearchBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int advertisements;
+
+    // blind (~8%), "blind labrador", dog (~45%), "calm gentle cat", "generated pet number" (every one)
+    @Param({"blind", "blind labrador", "dog", "calm gentle cat", "generated pet number"})
+    public String query;
+
+    private Fixtures fixtures;
+
+    @Setup
+    public void setup() {
+        fixtures = Fixtures.generate(advertisements, 42);
+    }
+
+    @Benchmark
+    public List<Advertisement> search() {
+        return fixtures.state.searchAdvertisements(query, 20);
+    }
+}
@@ -0,0 +1,81 @@
+package ch.unil.furrybuddy.benchmarks;
+
+import ch.unil.furrybuddy.domain.Advertisement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// The two ways RequestExecutor can run a resource method, under 512 concurrent clients: "platform" is the
+// current model, a bounded pool of platform threads like the container's HTTP pool, "virtual" is
+// -Dfurrybuddy.virtualThreads=true. Each request reads an advertisement and then blocks for blockMicros,
+// standing in for a journal fsync or a database round trip.
+// SampleTime gives the per-request latency percentiles (p0.99 is the p99), Throughput the requests per ms.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@Threads(512)
+public class VirtualThreadBenchmark {
+
+    // Payara's default http-thread-pool maximum
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String executor;
+
+    @Param({"0", "1000"})
+    public long blockMicros;
+
+    private Fixtures fixtures;
+    private ExecutorService requests;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fixtures = Fixtures.generate(10_000, 42);
+        requests = executor.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        requests.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final Random random = new Random();
+    }
+
+    @Benchmark
+    public Advertisement request(ThreadRandom thread) throws ExecutionException, InterruptedException {
+        var id = fixtures.advertisementIDs.get(thread.random.nextInt(fixtures.advertisementIDs.size()));
+        return requests.submit(() -> {
+            var advertisement = fixtures.state.getAdvertisement(id);
+            if (blockMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+            }
+            return advertisement;
+        }).get();
+    }
+}
@@ -0,0 +1,109 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Multi-maps from advertisement, adopter and pet owner to their adoption requests, so those lists cost
+// O(results) instead of a scan of every request. The owner map only holds pending requests: the ones nobody
+// has accepted, rejected or cancelled yet (see close).
+// Callers must serialize index/unindex/close for the same request (ApplicationState uses its lock stripes).
+final class AdoptionRequestIndex {
+
+    private record Entry(UUID advertisementID, UUID adopterID, UUID petOwnerID) {
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byAdvertisement = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byAdopter = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> pendingByPetOwner = new ConcurrentHashMap<>();
+    // kept apart from entries so that re-indexing an updated request does not reopen it
+    private final Set<UUID> closed = ConcurrentHashMap.newKeySet();
+
+    void clear() {
+        entries.clear();
+        byAdvertisement.clear();
+        byAdopter.clear();
+        pendingByPetOwner.clear();
+        closed.clear();
+    }
+
+    void index(AdoptionRequest adoptionRequest) {
+        var requestID = adoptionRequest.getRequestID();
+        var entry = entryOf(adoptionRequest);
+        var previous = entries.put(requestID, entry);
+        if (previous != null) {
+            unlink(requestID, previous);
+        }
+        link(requestID, entry);
+    }
+
+    void unindex(UUID requestID) {
+        var previous = entries.remove(requestID);
+        if (previous != null) {
+            unlink(requestID, previous);
+        }
+        closed.remove(requestID);
+    }
+
+    void close(UUID requestID) {
+        if (closed.add(requestID)) {
+            var entry = entries.get(requestID);
+            if (entry != null) {
+                Postings.remove(pendingByPetOwner, entry.petOwnerID(), requestID);
+            }
+        }
+    }
+
+    boolean isPending(UUID requestID) {
+        return !closed.contains(requestID);
+    }
+
+    // The lists below are sorted, like the maps they replace scans of
+    List<UUID> requestsForAdvertisement(UUID advertisementID) {
+        return sorted(byAdvertisement.get(advertisementID));
+    }
+
+    List<UUID> requestsByAdopter(UUID adopterID) {
+        return sorted(byAdopter.get(adopterID));
+    }
+
+    List<UUID> pendingRequestsForPetOwner(UUID petOwnerID) {
+        return sorted(pendingByPetOwner.get(petOwnerID));
+    }
+
+    private static List<UUID> sorted(Set<UUID> ids) {
+        if (ids == null) {
+            return List.of();
+        }
+        var result = new ArrayList<>(ids);
+        result.sort(null);
+        return result;
+    }
+
+    private static Entry entryOf(AdoptionRequest adoptionRequest) {
+        var advertisement = adoptionRequest.getAdvertisement();
+        var adopter = adoptionRequest.getAdopter();
+        var petOwner = advertisement == null ? null : advertisement.getPetOwner();
+        return new Entry(advertisement == null ? null : advertisement.getAdvertisementID(),
+                adopter == null ? null : adopter.getUserID(),
+                petOwner == null ? null : petOwner.getUserID());
+    }
+
+    private void link(UUID requestID, Entry entry) {
+        Postings.add(byAdvertisement, entry.advertisementID(), requestID);
+        Postings.add(byAdopter, entry.adopterID(), requestID);
+        if (!closed.contains(requestID)) {
+            Postings.add(pendingByPetOwner, entry.petOwnerID(), requestID);
+        }
+    }
+
+    private void unlink(UUID requestID, Entry entry) {
+        Postings.remove(byAdvertisement, entry.advertisementID(), requestID);
+        Postings.remove(byAdopter, entry.adopterID(), requestID);
+        Postings.remove(pendingByPetOwner, entry.petOwnerID(), requestID);
+    }
+}
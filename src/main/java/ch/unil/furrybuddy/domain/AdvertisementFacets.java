@@ -0,0 +1,13 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.Map;
+
+// How many advertisements match a filter (total), and how many would match with each facet value chosen instead:
+// the species, breed and gender counts ignore the filter's own criterion on that facet, the compatibility counts are
+// for the filter with that flag required as well
+public record AdvertisementFacets(long total,
+                                  Map<String, Long> species,
+                                  Map<String, Long> breed,
+                                  Map<String, Long> gender,
+                                  Map<String, Long> compatibility) {
+}
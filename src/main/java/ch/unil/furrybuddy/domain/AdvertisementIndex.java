@@ -0,0 +1,198 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Inverted posting lists over species, breed and gender; compatibility is kept as a packed mask
+// per advertisement and checked with CompatibilityMatcher.
+// Facet counts come from a counter per combination of the four attributes, kept up to date by index/unindex: there are
+// only as many combinations as the catalog has variety, so counting for any filter never walks the advertisements.
+// Callers must serialize index/unindex for the same advertisement (ApplicationState uses its lock stripes).
+final class AdvertisementIndex {
+
+    private record Entry(UUID petID, String species, String breed, String gender, int compatibility) {
+    }
+
+    private record Combination(String species, String breed, String gender, int compatibility) {
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> bySpecies = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> byBreed = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> byGender = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byPet = new ConcurrentHashMap<>();
+    // combinations stay once seen, possibly at zero, so a counter is never dropped while someone increments it
+    private final Map<Combination, LongAdder> combinations = new ConcurrentHashMap<>();
+
+    void clear() {
+        entries.clear();
+        bySpecies.clear();
+        byBreed.clear();
+        byGender.clear();
+        byPet.clear();
+        combinations.clear();
+    }
+
+    void index(Advertisement advertisement) {
+        index(advertisement.getAdvertisementID(), entryOf(advertisement.getPet()));
+    }
+
+    // Used when rebuilding from a snapshot, without materializing the advertisement
+    void index(UUID advertisementID, UUID petID, String species, String breed, String gender, int compatibility) {
+        index(advertisementID, new Entry(petID, species, breed, gender, compatibility));
+    }
+
+    private void index(UUID advertisementID, Entry entry) {
+        var previous = entries.put(advertisementID, entry);
+        if (previous != null) {
+            unlink(advertisementID, previous);
+        }
+        link(advertisementID, entry);
+    }
+
+    void unindex(UUID advertisementID) {
+        var previous = entries.remove(advertisementID);
+        if (previous != null) {
+            unlink(advertisementID, previous);
+        }
+    }
+
+    Set<UUID> advertisementsOfPet(UUID petID) {
+        return byPet.getOrDefault(petID, Set.of());
+    }
+
+    // Returns the matching advertisement IDs in UUID order, or null when the query selects nothing
+    // and every advertisement matches.
+    List<UUID> search(String species, String breed, String gender, int compatibility) {
+        var postings = new ArrayList<Set<UUID>>(3);
+        if (species != null && !species.isEmpty()) {
+            postings.add(bySpecies.getOrDefault(species, Set.of()));
+        }
+        if (breed != null && !breed.isEmpty()) {
+            postings.add(byBreed.getOrDefault(breed, Set.of()));
+        }
+        if (gender != null && !gender.isEmpty()) {
+            postings.add(byGender.getOrDefault(gender.toUpperCase(Locale.ROOT), Set.of()));
+        }
+        if (postings.isEmpty()) {
+            return compatibility == CompatibilityMatcher.NONE ? null : scan(compatibility);
+        }
+
+        // Walk the shortest list and probe the others
+        postings.sort(Comparator.comparingInt(Set::size));
+        var result = new ArrayList<UUID>();
+        var shortest = postings.get(0);
+        for (var advertisementID : shortest) {
+            boolean match = true;
+            for (int i = 1; i < postings.size() && match; i++) {
+                match = postings.get(i).contains(advertisementID);
+            }
+            if (match && compatibility != CompatibilityMatcher.NONE) {
+                var entry = entries.get(advertisementID);
+                match = entry != null && CompatibilityMatcher.matches(entry.compatibility(), compatibility);
+            }
+            if (match) {
+                result.add(advertisementID);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    // Same criteria as search; lock-free, so concurrent changes may or may not be counted yet
+    AdvertisementFacets facets(String species, String breed, String gender, int compatibility) {
+        boolean anySpecies = species == null || species.isEmpty();
+        boolean anyBreed = breed == null || breed.isEmpty();
+        boolean anyGender = gender == null || gender.isEmpty();
+        var normalizedGender = anyGender ? null : gender.toUpperCase(Locale.ROOT);
+        long total = 0;
+        var bySpeciesCount = new TreeMap<String, Long>();
+        var byBreedCount = new TreeMap<String, Long>();
+        var byGenderCount = new TreeMap<String, Long>();
+        var byFlagCount = new long[4];
+        for (var entry : combinations.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count <= 0) {
+                continue;
+            }
+            var combination = entry.getKey();
+            boolean speciesMatches = anySpecies || species.equals(combination.species());
+            boolean breedMatches = anyBreed || breed.equals(combination.breed());
+            boolean genderMatches = anyGender || normalizedGender.equals(combination.gender());
+            boolean compatibilityMatches = CompatibilityMatcher.matches(combination.compatibility(), compatibility);
+            if (breedMatches && genderMatches && compatibilityMatches && combination.species() != null) {
+                bySpeciesCount.merge(combination.species(), count, Long::sum);
+            }
+            if (speciesMatches && genderMatches && compatibilityMatches && combination.breed() != null) {
+                byBreedCount.merge(combination.breed(), count, Long::sum);
+            }
+            if (speciesMatches && breedMatches && compatibilityMatches && combination.gender() != null) {
+                byGenderCount.merge(combination.gender(), count, Long::sum);
+            }
+            if (speciesMatches && breedMatches && genderMatches && compatibilityMatches) {
+                total += count;
+                for (int bit = 0; bit < byFlagCount.length; bit++) {
+                    if ((combination.compatibility() & (1 << bit)) != 0) {
+                        byFlagCount[bit] += count;
+                    }
+                }
+            }
+        }
+        var byCompatibilityCount = new LinkedHashMap<String, Long>();
+        for (int bit = 0; bit < byFlagCount.length; bit++) {
+            byCompatibilityCount.put(CompatibilityMatcher.labelOf(1 << bit), byFlagCount[bit]);
+        }
+        return new AdvertisementFacets(total, bySpeciesCount, byBreedCount, byGenderCount, byCompatibilityCount);
+    }
+
+    private List<UUID> scan(int compatibility) {
+        var result = new ArrayList<UUID>();
+        entries.forEach((advertisementID, entry) -> {
+            if (CompatibilityMatcher.matches(entry.compatibility(), compatibility)) {
+                result.add(advertisementID);
+            }
+        });
+        result.sort(null);
+        return result;
+    }
+
+    private static Entry entryOf(Pet pet) {
+        if (pet == null) {
+            return new Entry(null, null, null, null, CompatibilityMatcher.NONE);
+        }
+        var gender = pet.getGender() == null ? null : pet.getGender().name();
+        return new Entry(pet.getPetID(), pet.getSpecies(), pet.getBreed(), gender, CompatibilityMatcher.maskOf(pet));
+    }
+
+    private void link(UUID advertisementID, Entry entry) {
+        combinations.computeIfAbsent(combinationOf(entry), c -> new LongAdder()).increment();
+        Postings.add(byPet, entry.petID(), advertisementID);
+        Postings.add(bySpecies, entry.species(), advertisementID);
+        Postings.add(byBreed, entry.breed(), advertisementID);
+        Postings.add(byGender, entry.gender(), advertisementID);
+    }
+
+    private void unlink(UUID advertisementID, Entry entry) {
+        var counter = combinations.get(combinationOf(entry));
+        if (counter != null) {
+            counter.decrement();
+        }
+        Postings.remove(byPet, entry.petID(), advertisementID);
+        Postings.remove(bySpecies, entry.species(), advertisementID);
+        Postings.remove(byBreed, entry.breed(), advertisementID);
+        Postings.remove(byGender, entry.gender(), advertisementID);
+    }
+
+    private static Combination combinationOf(Entry entry) {
+        return new Combination(entry.species(), entry.breed(), entry.gender(), entry.compatibility());
+    }
+}
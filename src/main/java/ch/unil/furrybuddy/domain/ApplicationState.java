@@ -1,34 +1,652 @@
 package ch.unil.furrybuddy.domain;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
 
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class ApplicationState {
 
-    private Map<String, UUID> users;
-    private Map<UUID, Adopter> adopters;
-    private Map<UUID, PetOwner> petOwners;
-    private Map<UUID, Pet> pets;
-    private Map<UUID, Advertisement> advertisements;
-    private Map<UUID, AdoptionRequest> adoptionRequests;
+    // Reads never lock: the skip lists keep the UUID ordering of the former TreeMaps and are safe to
+    // iterate while other threads write. Updates of a single entity are serialized by a lock stripe.
+    private final Map<String, UUID> users = new ConcurrentHashMap<>();
+    private final NavigableMap<UUID, Adopter> adopters = new ConcurrentSkipListMap<>();
+    private final NavigableMap<UUID, PetOwner> petOwners = new ConcurrentSkipListMap<>();
+    private final NavigableMap<UUID, Pet> pets = new ConcurrentSkipListMap<>();
+    private final NavigableMap<UUID, Advertisement> advertisements = new ConcurrentSkipListMap<>();
+    private final NavigableMap<UUID, AdoptionRequest> adoptionRequests = new ConcurrentSkipListMap<>();
+
+    private final LockStripes locks = new LockStripes(Runtime.getRuntime().availableProcessors() * 4);
+    private final AdvertisementIndex advertisementIndex = new AdvertisementIndex();
+    private final AdoptionRequestIndex adoptionRequestIndex = new AdoptionRequestIndex();
+    private final TextIndex textIndex = new TextIndex();
+    private final GeoIndex geoIndex = new GeoIndex();
+
+    // Version stamps for conditional requests. Every change takes the next tick of one clock and records it for the
+    // entity, its collection and the users whose JSON may list it; an entity's version also covers the entities it
+    // embeds (see getVersion). Only changes since startup are stamped, so the epoch tells runs apart.
+    private final long epoch = new SecureRandom().nextLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<UUID, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLongArray collectionVersions = new AtomicLongArray(EntityType.values().length);
+
+    // Every mutation is journaled under its entity's lock stripe, so the log order matches the apply order
+    private Journal journal = Journal.NONE;
+
+    // Entities recovered from a snapshot stay in the mapped file until first touched (see lookup/loaded)
+    private volatile SnapshotFile baseline;
+    private final Set<EntityType> fullyLoaded = ConcurrentHashMap.newKeySet();
+
+    // With -Dfurrybuddy.storage=jpa the maps only cache what is in use and the database holds everything
+    @Inject
+    private Instance<JpaRepository> jpaRepository;
+    private Repository repository = Repository.NONE;
+    // Bounded caches that stand in for the maps in that mode (see store)
+    private final Map<EntityType, EntityCache<Object>> caches = new EnumMap<>(EntityType.class);
+
+    // Set while the current thread runs applyBatch
+    private final ThreadLocal<OpenBatch> openBatch = new ThreadLocal<>();
+
+    // Every committed change, for the change feed; not while the state is loaded, recovered or reset
+    @Inject
+    private Event<EntityChange> changeEvents;
+    private volatile boolean announcing;
+    // set while the journal is replayed: its password hashes were made here, maybe with more iterations than now
+    private volatile boolean recovering;
+
+    // With -Dfurrybuddy.shards this instance only holds the entities whose IDs the ring gives it. New entities get
+    // such IDs, and reads of the others are answered by their owners (see find); null when running alone.
+    private final ShardRing shards = ShardRing.configured();
+    @Inject
+    private Instance<RemoteShards> remoteShards;
 
     @PostConstruct
     public void init() {
-        users = new TreeMap<>();
-        adopters = new TreeMap<>();
-        petOwners = new TreeMap<>();
-        pets = new TreeMap<>();
-        advertisements = new TreeMap<>();
-        adoptionRequests = new TreeMap<>();
+        clear();
+        if (Repository.JPA.equals(System.getProperty(Repository.STORAGE_PROPERTY, Repository.MEMORY))) {
+            repository = jpaRepository.get();
+            int size = Integer.getInteger(EntityCache.SIZE_PROPERTY, EntityCache.DEFAULT_SIZE);
+            for (var type : EntityType.values()) {
+                caches.put(type, new EntityCache<>(size));
+            }
+            if (repository.count(EntityType.PET_OWNER) == 0 && repository.count(EntityType.ADOPTER) == 0) {
+                populateApplicationState();
+                retainLocal();
+            }
+            // every write goes through here, so indexing once at startup keeps search, distances and facets complete
+            for (var advertisement : repository.findAll(EntityType.ADVERTISEMENT)) {
+                indexAdvertisement((Advertisement) advertisement);
+            }
+            repository.findClosedAdoptionRequestIDs().forEach(adoptionRequestIndex::close);
+            announcing = true;
+            return;
+        }
+        var wal = Journal.open(this::writeSnapshot);
+        // journal is still NONE while replaying, so recovered mutations are not logged a second time
+        boolean recovered;
+        recovering = true;
+        try {
+            recovered = wal.recover(this::loadBaseline, this::replay);
+        } finally {
+            recovering = false;
+        }
+        journal = wal;
+        if (!recovered) {
+            populateApplicationState();
+            retainLocal();
+        }
+        announcing = true;
+    }
+
+    // Creates the state when the application starts rather than on its first request, so a configuration it
+    // refuses (a shard ring without a shared key...) stops the deployment
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    }
 
+    public void reset() {
+        announcing = false;
+        clear();
+        journal.reset();
+        repository.deleteAll();
         populateApplicationState();
+        retainLocal();
+        announcing = true;
+    }
+
+    @PreDestroy
+    public void close() {
+        journal.close();
+        clear();
+    }
+
+    private void clear() {
+        var snapshot = baseline;
+        baseline = null;
+        fullyLoaded.clear();
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        users.clear();
+        adopters.clear();
+        petOwners.clear();
+        pets.clear();
+        advertisements.clear();
+        adoptionRequests.clear();
+        advertisementIndex.clear();
+        adoptionRequestIndex.clear();
+        textIndex.clear();
+        geoIndex.clear();
+        versions.clear();
+        caches.values().forEach(Map::clear);
+    }
+
+    // SHARDS
+    // Every shard creates the same sample data, with the same IDs, and keeps the part the ring gives it
+    // The sample ID itself when running alone. In a sharded service an ID derived from it that the shard of near
+    // owns: every shard loads the same sample data and keeps what is its own (see retainLocal), so the sample
+    // entities end up where the workflows would have created them.
+    private UUID sampleID(String id, UUID near) {
+        var sample = UUID.fromString(id);
+        if (shards == null) {
+            return sample;
+        }
+        var shard = shards.ownerOf(near);
+        for (int attempt = 1; !shards.ownerOf(sample).equals(shard); attempt++) {
+            sample = UUID.nameUUIDFromBytes((id + "#" + attempt).getBytes(StandardCharsets.UTF_8));
+        }
+        return sample;
+    }
+
+    private void retainLocal() {
+        if (shards == null) {
+            return;
+        }
+        dropRemote(EntityType.ADOPTION_REQUEST, adoptionRequests, this::deleteAdoptionRequest);
+        dropRemote(EntityType.ADVERTISEMENT, advertisements, this::removeAdvertisement);
+        dropRemote(EntityType.PET, pets, this::removePet);
+        dropRemote(EntityType.PET_OWNER, petOwners, id -> remove(EntityType.PET_OWNER, petOwners, id));
+        dropRemote(EntityType.ADOPTER, adopters, id -> remove(EntityType.ADOPTER, adopters, id));
+        users.values().removeIf(id -> !shards.isLocal(id));
+    }
+
+    private <T> void dropRemote(EntityType type, NavigableMap<UUID, T> map, Predicate<UUID> remove) {
+        for (var id : List.copyOf(loaded(type, map).keySet())) {
+            if (!shards.isLocal(id)) {
+                remove.test(id);
+            }
+        }
+    }
+
+    // The ring this instance is part of, or null when it runs alone
+    public ShardRing getShardRing() {
+        return shards;
+    }
+
+    public boolean isLocal(UUID id) {
+        return shards == null || shards.isLocal(id);
+    }
+
+    // Refuses an ID chosen by a client that another shard owns: kept here, it would never be looked for here
+    public void requireLocal(UUID id) {
+        if (id != null && !isLocal(id)) {
+            throw new IllegalArgumentException("This ID belongs to another instance of the service!");
+        }
+    }
+
+    // The ID for a new entity: one this instance owns
+    public UUID newID() {
+        return shards == null ? UUID.randomUUID() : shards.newID();
+    }
+
+    // lookup, falling back to the owning shard for an ID that is not ours. Only the public reads use it, so
+    // whatever is changed is always changed where it lives.
+    @SuppressWarnings("unchecked")
+    private <T> T find(EntityType type, Map<UUID, T> map, UUID id) {
+        var entity = lookup(type, map, id);
+        if (entity == null && shards != null && !shards.isLocal(id)) {
+            entity = (T) remoteShards.get().find(type, id);
+        }
+        return entity;
+    }
+
+    public Map<EntityType, EntityCache.Stats> getCacheStats() {
+        var stats = new EnumMap<EntityType, EntityCache.Stats>(EntityType.class);
+        caches.forEach((type, cache) -> stats.put(type, cache.stats()));
+        return stats;
+    }
+
+    // The map an entity type is kept in: its cache when backed by a repository, else the map itself
+    @SuppressWarnings("unchecked")
+    private <T> Map<UUID, T> store(EntityType type, Map<UUID, T> map) {
+        var cache = caches.get(type);
+        return cache == null ? map : (Map<UUID, T>) cache;
+    }
+
+    private <T> T put(EntityType type, Map<UUID, T> map, UUID id, T entity) {
+        return locks.withLock(id, () -> {
+            journal.checkWritable();
+            var previous = store(type, map).put(id, entity);
+            retire(type, id);
+            stamp(type, id, entity);
+            logUpsert(type, id, entity);
+            var batch = openBatch.get();
+            if (batch != null && previous == null && repository.isPersistent()) {
+                batch.inserts.put(new Key(type, id), entity);
+            } else {
+                repository.save(type, entity);
+            }
+            announce(previous == null ? EntityChange.Kind.CREATED : EntityChange.Kind.UPDATED, type, id, entity);
+            return entity;
+        });
+    }
+
+    private <T> boolean replace(EntityType type, Map<UUID, T> map, UUID id, T update, BiConsumer<T, T> replaceWith) {
+        return replace(type, map, id, update, replaceWith, current -> {});
+    }
+
+    private <T> boolean replace(EntityType type, Map<UUID, T> map, UUID id, T update, BiConsumer<T, T> replaceWith,
+                                Consumer<T> onReplaced) {
+        return replace(type, map, id, update, replaceWith, onReplaced, null);
+    }
+
+    // With expectedVersion, the entity is only replaced when its current version passes it (checked under the stripe)
+    private <T> boolean replace(EntityType type, Map<UUID, T> map, UUID id, T update, BiConsumer<T, T> replaceWith,
+                                Consumer<T> onReplaced, LongPredicate expectedVersion) {
+        return locks.withLock(id, () -> {
+            var current = lookup(type, map, id);
+            if (current == null) {
+                return false;
+            }
+            journal.checkWritable();
+            if (expectedVersion != null && !expectedVersion.test(getVersion(type, current))) {
+                throw new VersionMismatchException("This entity was changed in the meantime!");
+            }
+            replaceWith.accept(current, update);
+            // indexes first: a reader seeing the new version must also see what it changed in them
+            onReplaced.accept(current);
+            stamp(type, id, current);
+            logUpsert(type, id, current);
+            var batch = openBatch.get();
+            // an entity created earlier in the same batch is saved with its final state by saveAll
+            if (batch == null || !batch.inserts.containsKey(new Key(type, id))) {
+                repository.save(type, current);
+            }
+            announce(EntityChange.Kind.UPDATED, type, id, current);
+            return true;
+        });
+    }
+
+    private <T> boolean remove(EntityType type, Map<UUID, T> map, UUID id) {
+        return locks.withLock(id, () -> {
+            journal.checkWritable();
+            var previous = store(type, map).remove(id);
+            boolean removed = previous != null;
+            removed |= retire(type, id);
+            var batch = openBatch.get();
+            if (batch != null && batch.inserts.remove(new Key(type, id)) != null) {
+                removed = true;
+            } else {
+                removed |= repository.delete(type, id);
+            }
+            if (removed) {
+                stamp(type, id, previous);
+                versions.remove(id);
+                logDelete(type, id);
+                announce(EntityChange.Kind.REMOVED, type, id, previous);
+            }
+            return removed;
+        });
+    }
+
+    // Right away, or once the batch the change belongs to is durable
+    private void announce(EntityChange.Kind kind, EntityType type, UUID id, Object entity) {
+        if (changeEvents == null || !announcing) {
+            return;
+        }
+        var change = new EntityChange(kind, type, id, entity);
+        var batch = openBatch.get();
+        if (batch != null) {
+            batch.changes.add(change);
+        } else {
+            changeEvents.fireAsync(change);
+        }
+    }
+
+    // Caller holds the stripe of id; entity may be null for a removal
+    private void stamp(EntityType type, UUID id, Object entity) {
+        long version = clock.incrementAndGet();
+        touch(type, id, version);
+        if (entity instanceof Advertisement advertisement) {
+            touch(EntityType.PET_OWNER, userIDOf(advertisement.getPetOwner()), version);
+        } else if (entity instanceof AdoptionRequest adoptionRequest) {
+            touch(EntityType.ADOPTER, userIDOf(adoptionRequest.getAdopter()), version);
+            var advertisement = adoptionRequest.getAdvertisement();
+            if (advertisement != null) {
+                touch(EntityType.PET_OWNER, userIDOf(advertisement.getPetOwner()), version);
+            }
+        }
+    }
+
+    // Caller holds the stripe of id. Stamps again once the indexes caught up with a change stamped before them, so
+    // a result computed from the old indexes under the first stamp is not taken for the current one.
+    private void restamp(EntityType type, UUID id) {
+        touch(type, id, clock.incrementAndGet());
+    }
+
+    private void touch(EntityType type, UUID id, long version) {
+        if (id != null) {
+            versions.merge(id, version, Math::max);
+        }
+        collectionVersions.accumulateAndGet(type.ordinal(), version, Math::max);
+    }
+
+    private static UUID userIDOf(User user) {
+        return user == null ? null : user.getUserID();
+    }
+
+    // Identifies this run; versions restart with it
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // Changes whenever the JSON of the entity may have: with its own changes and those of the entities it embeds
+    public long getVersion(EntityType type, Object entity) {
+        long version = versionOf(type.idOf(entity));
+        if (entity instanceof Advertisement advertisement) {
+            var pet = advertisement.getPet();
+            version = Math.max(version, pet == null ? 0 : versionOf(pet.getPetID()));
+            version = Math.max(version, versionOf(userIDOf(advertisement.getPetOwner())));
+        } else if (entity instanceof AdoptionRequest adoptionRequest) {
+            version = Math.max(version, versionOf(userIDOf(adoptionRequest.getAdopter())));
+            var advertisement = adoptionRequest.getAdvertisement();
+            if (advertisement != null) {
+                version = Math.max(version, getVersion(EntityType.ADVERTISEMENT, advertisement));
+            }
+        }
+        return version;
+    }
+
+    public record Versioned<T>(T entity, long version) {
+    }
+
+    // An entity read with its version under its stripe, where every write of it is also stamped: no write can fall
+    // between the two reads, so the version is never newer than the entity
+    public <T> Versioned<T> getVersioned(EntityType type, UUID id, Supplier<T> read) {
+        return locks.withLock(id, () -> {
+            var entity = read.get();
+            return new Versioned<>(entity, getVersion(type, entity));
+        });
+    }
+
+    // The same for a whole collection, including the collections its entities embed
+    public long getVersion(EntityType type) {
+        long version = collectionVersions.get(type.ordinal());
+        if (type == EntityType.ADVERTISEMENT || type == EntityType.ADOPTION_REQUEST) {
+            version = Math.max(version, Math.max(collectionVersions.get(EntityType.PET.ordinal()),
+                    collectionVersions.get(EntityType.PET_OWNER.ordinal())));
+        }
+        if (type == EntityType.ADOPTION_REQUEST) {
+            version = Math.max(version, Math.max(collectionVersions.get(EntityType.ADVERTISEMENT.ordinal()),
+                    collectionVersions.get(EntityType.ADOPTER.ordinal())));
+        }
+        return version;
+    }
+
+    private long versionOf(UUID id) {
+        return id == null ? 0 : versions.getOrDefault(id, 0L);
+    }
+
+    private void logUpsert(EntityType type, UUID id, Object entity) {
+        boolean closed = isClosed(type, id);
+        var batch = openBatch.get();
+        if (batch != null) {
+            batch.journal.upsert(type, id, entity, closed);
+        } else {
+            journal.upsert(type, id, entity, closed);
+        }
+    }
+
+    private boolean isClosed(EntityType type, UUID id) {
+        return type == EntityType.ADOPTION_REQUEST && !adoptionRequestIndex.isPending(id);
+    }
+
+    private void logDelete(EntityType type, UUID id) {
+        var batch = openBatch.get();
+        if (batch != null) {
+            batch.journal.delete(type, id);
+        } else {
+            journal.delete(type, id);
+        }
+    }
+
+    // BATCHES
+    public record Outcome<T>(T value, RuntimeException error) {
+    }
+
+    private record Key(EntityType type, UUID id) {
+    }
+
+    // The batch the current thread is applying: records go to one journal append, new entities to one saveAll
+    private static final class OpenBatch {
+        final Journal.Batch journal;
+        final Map<Key, Object> inserts = new LinkedHashMap<>();
+        final List<EntityChange> changes = new ArrayList<>();
+
+        OpenBatch(Journal.Batch journal) {
+            this.journal = journal;
+        }
+    }
+
+    // Applies the changes in order while holding every lock stripe once, then makes them durable together.
+    // A change that throws is reported in its outcome and does not stop the others.
+    public <T> List<Outcome<T>> applyBatch(List<? extends Supplier<T>> changes) {
+        return locks.withAllLocks(() -> {
+            journal.checkWritable();
+            var batch = new OpenBatch(journal.batch());
+            var outcomes = new ArrayList<Outcome<T>>(changes.size());
+            openBatch.set(batch);
+            try {
+                for (var change : changes) {
+                    try {
+                        outcomes.add(new Outcome<>(change.get(), null));
+                    } catch (RuntimeException e) {
+                        outcomes.add(new Outcome<>(null, e));
+                    }
+                }
+            } finally {
+                openBatch.remove();
+            }
+            batch.journal.commit();
+            repository.saveAll(batch.inserts.values());
+            batch.changes.forEach(change -> changeEvents.fireAsync(change));
+            return outcomes;
+        });
+    }
+
+    // SNAPSHOT BASELINE
+    private void loadBaseline(SnapshotFile snapshot) {
+        baseline = snapshot;
+        // user accounts are needed up front for authentication and the email uniqueness check
+        loaded(EntityType.PET_OWNER, petOwners).forEach((id, petOwner) -> users.put(petOwner.getEmail(), id));
+        loaded(EntityType.ADOPTER, adopters).forEach((id, adopter) -> users.put(adopter.getEmail(), id));
+        snapshot.forEachAdvertisement(advertisementIndex::index);
+        // the snapshot keeps only the filter attributes of an advertisement, so the text is decoded here once
+        // and dropped again; the advertisements themselves stay in the file
+        for (int position = 0; position < snapshot.count(EntityType.ADVERTISEMENT); position++) {
+            var advertisement = (Advertisement) snapshot.materialize(EntityType.ADVERTISEMENT, position);
+            advertisement.setAdvertisementID(snapshot.id(EntityType.ADVERTISEMENT, position));
+            textIndex.index(advertisement);
+            geoIndex.index(advertisement);
+        }
+        // requests are small and the request index needs their advertisement and adopter, so decode them all.
+        // Nothing else runs yet, so they are linked outside their stripes.
+        var requests = loaded(EntityType.ADOPTION_REQUEST, adoptionRequests).values();
+        requests.forEach(adoptionRequest -> link(adoptionRequest, true));
+        requests.forEach(adoptionRequestIndex::index);
+        for (int position = 0; position < snapshot.count(EntityType.ADOPTION_REQUEST); position++) {
+            if (snapshot.isClosed(position)) {
+                adoptionRequestIndex.close(snapshot.id(EntityType.ADOPTION_REQUEST, position));
+            }
+        }
+    }
+
+    private <T> T lookup(EntityType type, Map<UUID, T> map, UUID id) {
+        var entity = store(type, map).get(id);
+        if (entity != null) {
+            return entity;
+        }
+        var snapshot = baseline;
+        if (snapshot != null) {
+            int position = snapshot.find(type, id);
+            if (position < 0) {
+                return null;
+            }
+            return locks.withLock(id, () -> materialize(snapshot, type, map, id, position));
+        }
+        if (repository.isPersistent()) {
+            return locks.withLock(id, () -> readThrough(type, id));
+        }
+        return null;
+    }
+
+    // Caller holds the stripe of id. Writers hold it too, so a loaded entity cannot miss a concurrent update;
+    // it may still be refused by the cache, in which case the next lookup reads the database again.
+    @SuppressWarnings("unchecked")
+    private <T> T readThrough(EntityType type, UUID id) {
+        var cache = caches.get(type);
+        var entity = cache.peek(id);
+        if (entity == null) {
+            entity = repository.find(type, id);
+            if (entity != null) {
+                cache.put(id, entity);
+            }
+        }
+        return (T) entity;
+    }
+
+    // Decodes every entity of the type still in the snapshot; done once before whole-map reads.
+    // With a repository the whole type is read from the database on each call, bypassing the cache so a
+    // listing does not flush it; cached instances are returned in place of their database copies.
+    private <T> NavigableMap<UUID, T> loaded(EntityType type, NavigableMap<UUID, T> map) {
+        if (repository.isPersistent()) {
+            return preferCached(type, repository.findAll(type));
+        }
+        if (fullyLoaded.contains(type)) {
+            return map;
+        }
+        var snapshot = baseline;
+        if (snapshot == null) {
+            return map;
+        }
+        for (int position = 0; position < snapshot.count(type); position++) {
+            if (!snapshot.isRetired(type, position)) {
+                var id = snapshot.id(type, position);
+                int at = position;
+                locks.withLock(id, () -> materialize(snapshot, type, map, id, at));
+            }
+        }
+        fullyLoaded.add(type);
+        return map;
+    }
+
+    // The count entities after cursor (from the first without one): with a repository only those are read, by a
+    // keyset query; in memory the whole map serves as the page
+    private <T> NavigableMap<UUID, T> page(EntityType type, NavigableMap<UUID, T> map, UUID cursor, int count) {
+        if (repository.isPersistent()) {
+            return preferCached(type, repository.findPage(type, cursor, count));
+        }
+        return loaded(type, map);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> NavigableMap<UUID, T> preferCached(EntityType type, List<?> entities) {
+        var cache = caches.get(type);
+        var result = new TreeMap<UUID, T>();
+        for (var entity : entities) {
+            var id = type.idOf(entity);
+            var cached = cache.peek(id);
+            result.put(id, (T) (cached != null ? cached : entity));
+        }
+        return result;
+    }
+
+    // Caller holds the stripe of id. A retired entity absent from the map was removed and must not come back.
+    // Holding a stripe, it can only be linked to what is loaded already; the rest is still as the snapshot has it.
+    @SuppressWarnings("unchecked")
+    private <T> T materialize(SnapshotFile snapshot, EntityType type, Map<UUID, T> map, UUID id, int position) {
+        var entity = map.get(id);
+        if (entity == null && !snapshot.isRetired(type, position)) {
+            entity = (T) snapshot.materialize(type, position);
+            link(entity, false);
+            map.put(id, entity);
+            snapshot.retire(type, position);
+        }
+        return entity;
+    }
+
+    // Points an advertisement or adoption request at the stored instances of the entities it embeds, as they are
+    // shared while the service runs, so it follows their later changes. A copy decoded from the journal, the snapshot
+    // or a request body keeps the values of when it was written, and would be indexed and announced with them.
+    // With load, the embedded entities are looked up under their own stripes, so the caller must hold none.
+    private void link(Object entity, boolean load) {
+        if (entity instanceof Advertisement advertisement) {
+            advertisement.setPet(stored(EntityType.PET, pets, advertisement.getPet(), load));
+            advertisement.setPetOwner(stored(EntityType.PET_OWNER, petOwners, advertisement.getPetOwner(), load));
+        } else if (entity instanceof AdoptionRequest adoptionRequest) {
+            adoptionRequest.setAdvertisement(stored(EntityType.ADVERTISEMENT, advertisements,
+                    adoptionRequest.getAdvertisement(), load));
+            adoptionRequest.setAdopter(stored(EntityType.ADOPTER, adopters, adoptionRequest.getAdopter(), load));
+        }
+    }
+
+    // The stored instance of an embedded entity, or the embedded copy when there is none here
+    private <T> T stored(EntityType type, Map<UUID, T> map, T copy, boolean load) {
+        var id = copy == null ? null : type.idOf(copy);
+        if (id == null) {
+            return copy;
+        }
+        var stored = load ? lookup(type, map, id) : store(type, map).get(id);
+        return stored != null ? stored : copy;
+    }
+
+    private boolean retire(EntityType type, UUID id) {
+        var snapshot = baseline;
+        if (snapshot == null) {
+            return false;
+        }
+        int position = snapshot.find(type, id);
+        return position >= 0 && snapshot.retire(type, position);
     }
 
     // PET
@@ -37,51 +655,80 @@ public class ApplicationState {
         if (pet.getPetID() != null) {
             return addPet(pet.getPetID(), pet);
         }
-        return addPet(UUID.randomUUID(), pet);
+        return addPet(newID(), pet);
     }
 
     public Pet addPet(UUID petID, Pet pet) {
         pet.setPetID(petID);
-        pets.put(petID, pet);
-        return pet;
+        return put(EntityType.PET, pets, petID, pet);
     }
 
     // READ
     public Pet getPet(UUID petID) {
-        if (!(pets.containsKey(petID))) {
+        var pet = find(EntityType.PET, pets, petID);
+        if (pet == null) {
             throw new IllegalArgumentException("Pet with this ID does not exist!");
         }
-        return pets.get(petID);
+        return pet;
     }
     public boolean hasPet(UUID petID) {
-        return pets.containsKey(petID);
+        return find(EntityType.PET, pets, petID) != null;
+    }
+
+    public NavigableMap<UUID, Pet> getAllPets() {
+        var all = loaded(EntityType.PET, pets);
+        if (all.isEmpty()) {
+            throw new IllegalArgumentException("There are no pets!");
+        }
+        return all;
     }
 
-    public Map<UUID, Pet> getAllPets() {
-        if (pets.isEmpty()) {
+    // The pages of the getAll* listings: at least count entities after cursor when there are that many
+    public NavigableMap<UUID, Pet> getPetsAfter(UUID cursor, int count) {
+        var page = page(EntityType.PET, pets, cursor, count);
+        if (cursor == null && page.isEmpty()) {
             throw new IllegalArgumentException("There are no pets!");
         }
-        return pets;
+        return page;
     }
 
     // UPDATE
     public boolean setPet(UUID petID, Pet pet) {
-        var thePet = pets.get(petID);
-        if (thePet == null) {
+        return setPet(petID, pet, null);
+    }
+
+    // With expectedVersion the update is conditional, see replace; the other set methods take it as well
+    public boolean setPet(UUID petID, Pet pet, LongPredicate expectedVersion) {
+        if (!replace(EntityType.PET, pets, petID, pet, Pet::replaceWith, current -> {}, expectedVersion)) {
             return false;
         }
-        thePet.replaceWith(pet);
+        // An advertisement decoded before the pet was loaded still holds its own copy: it is linked to the stored
+        // pet before being reindexed, or it would keep the old values. The pet stripe is released first so we never
+        // hold two stripes at once.
+        var stored = lookup(EntityType.PET, pets, petID);
+        for (var advertisementID : advertisementIndex.advertisementsOfPet(petID)) {
+            locks.withLock(advertisementID, () -> {
+                var advertisement = lookup(EntityType.ADVERTISEMENT, advertisements, advertisementID);
+                if (advertisement != null) {
+                    if (stored != null && isPetOf(advertisement, petID)) {
+                        advertisement.setPet(stored);
+                    }
+                    indexAdvertisement(advertisement);
+                    restamp(EntityType.ADVERTISEMENT, advertisementID);
+                }
+                return null;
+            });
+        }
         return true;
     }
 
+    private static boolean isPetOf(Advertisement advertisement, UUID petID) {
+        return advertisement.getPet() != null && petID.equals(advertisement.getPet().getPetID());
+    }
+
     // DELETE
     public boolean removePet(UUID petID) {
-        var pet = pets.get(petID);
-        if (pet == null) {
-            return false;
-        }
-        pets.remove(petID);
-        return true;
+        return remove(EntityType.PET, pets, petID);
     }
 
     // PET OWNER
@@ -90,62 +737,117 @@ public class ApplicationState {
         if (petOwner.getUserID() != null) {
             return addPetOwner(petOwner.getUserID(), petOwner);
         }
-        return addPetOwner(UUID.randomUUID(), petOwner);
+        return addPetOwner(newID(), petOwner);
     }
 
     public PetOwner addPetOwner(UUID petOwnerID, PetOwner petOwner) {
+        validate(petOwner);
+        hashPassword(petOwner);
         var email = petOwner.getEmail();
-        if (email == null || email.isBlank()) {
-            throw new IllegalArgumentException("Email is null or empty");
+        if (repository.findUserID(email) != null) {
+            throw new IllegalArgumentException("A user with this email already exists!");
         }
-        if (users.containsKey(email)) {
+        // putIfAbsent reserves the email atomically, so two concurrent sign-ups cannot both succeed
+        if (users.putIfAbsent(email, petOwnerID) != null) {
             throw new IllegalArgumentException("A user with this email already exists!");
         }
-        if (petOwner.getPassword() == null || petOwner.getPassword().isBlank()) {
+
+        petOwner.setUserID(petOwnerID);
+        return put(EntityType.PET_OWNER, petOwners, petOwnerID, petOwner);
+    }
+
+    // The checks a new account has to pass before its email is even looked at
+    private static void validate(User user) {
+        if (user.getEmail() == null || user.getEmail().isBlank()) {
+            throw new IllegalArgumentException("Email is null or empty");
+        }
+        if (user.getPassword() == null || user.getPassword().isBlank()) {
             throw new IllegalArgumentException("You must enter a password!");
         }
+    }
 
-        petOwner.setUserID(petOwnerID);
-        petOwners.put(petOwnerID, petOwner);
-        users.put(email, petOwnerID);
-        return petOwner;
+    // What an importer runs on a new account as it reads it: the checks, and the hashing, which must never happen
+    // inside applyBatch since that holds every stripe. Adding the account later keeps the hash as it is.
+    public void prepare(User user) {
+        validate(user);
+        hashPassword(user);
+    }
+
+    // Plaintext from clients is replaced by its hash before anything stores it. A hash passes through as it is, but
+    // one from a client must not cost more to verify than the server's own (see Passwords.isAcceptableHash).
+    private void hashPassword(User user) {
+        var password = user.getPassword();
+        if (password == null) {
+            return;
+        }
+        if (!Passwords.isHashed(password)) {
+            user.setPassword(Passwords.hash(password));
+        } else if (!recovering && !Passwords.isAcceptableHash(password)) {
+            throw new IllegalArgumentException("A password hash must be pbkdf2-sha256 with at most "
+                    + Passwords.iterations() + " iterations!");
+        }
     }
 
     // READ
     public PetOwner getPetOwner(UUID petOwnerID) {
-        if (!(petOwners.containsKey(petOwnerID))) {
+        var petOwner = find(EntityType.PET_OWNER, petOwners, petOwnerID);
+        if (petOwner == null) {
             throw new IllegalArgumentException("User with this ID does not exist!");
         }
-        return petOwners.get(petOwnerID);
+        return petOwner;
     }
 
-    public Map<UUID, PetOwner> getAllPetOwners() {
-        if (petOwners.isEmpty()) {
+    public NavigableMap<UUID, PetOwner> getAllPetOwners() {
+        var all = loaded(EntityType.PET_OWNER, petOwners);
+        if (all.isEmpty()) {
             throw new IllegalArgumentException("There are no pet owners!");
         }
-        return petOwners;
+        return all;
+    }
+
+    public NavigableMap<UUID, PetOwner> getPetOwnersAfter(UUID cursor, int count) {
+        var page = page(EntityType.PET_OWNER, petOwners, cursor, count);
+        if (cursor == null && page.isEmpty()) {
+            throw new IllegalArgumentException("There are no pet owners!");
+        }
+        return page;
     }
 
     //UPDATE
     public boolean setPetOwner(UUID petOwnerID, PetOwner petOwner) {
-        var thePetOwner = petOwners.get(petOwnerID);
-        if (thePetOwner == null) {
+        return setPetOwner(petOwnerID, petOwner, null);
+    }
+
+    public boolean setPetOwner(UUID petOwnerID, PetOwner petOwner, LongPredicate expectedVersion) {
+        hashPassword(petOwner);
+        if (!replace(EntityType.PET_OWNER, petOwners, petOwnerID, petOwner, PetOwner::replaceWith, current -> {},
+                expectedVersion)) {
             return false;
         }
-        thePetOwner.replaceWith(petOwner);
+        // the owner may have moved; like setPet, each advertisement is linked to the stored owner and updated under
+        // its own stripe only
+        var point = Geocoder.locate(petOwner.getLocation());
+        var stored = lookup(EntityType.PET_OWNER, petOwners, petOwnerID);
+        for (var advertisementID : geoIndex.advertisementsOfPetOwner(petOwnerID)) {
+            locks.withLock(advertisementID, () -> {
+                var advertisement = lookup(EntityType.ADVERTISEMENT, advertisements, advertisementID);
+                if (advertisement != null && stored != null && advertisement.getPetOwner() != null
+                        && petOwnerID.equals(advertisement.getPetOwner().getUserID())) {
+                    advertisement.setPetOwner(stored);
+                }
+                geoIndex.move(advertisementID, petOwnerID, point);
+                restamp(EntityType.ADVERTISEMENT, advertisementID);
+                return null;
+            });
+        }
         return true;
     }
 
     //DELETE
     public boolean removePetOwner(UUID petOwnerID) {
-        var petOwner = petOwners.get(petOwnerID);
-        if (!(petOwners.containsKey(petOwnerID))) {
+        if (!remove(EntityType.PET_OWNER, petOwners, petOwnerID)) {
             throw new IllegalArgumentException("Pet Owner with this ID does not exist!");
         }
-        if (petOwner == null) {
-            return false;
-        }
-        petOwners.remove(petOwnerID);
         return true;
     }
 
@@ -155,64 +857,65 @@ public class ApplicationState {
         if (adopter.getUserID() != null) {
             return addAdopter(adopter.getUserID(), adopter);
         }
-        return addAdopter(UUID.randomUUID(), adopter);
+        return addAdopter(newID(), adopter);
     }
 
     public Adopter addAdopter(UUID adopterID, Adopter adopter) {
+        validate(adopter);
+        hashPassword(adopter);
         var email = adopter.getEmail();
-
-        if (email == null || email.isBlank()) {
-            throw new IllegalArgumentException("Email is null or empty");
-        }
-        if (users.containsKey(email)) {
+        if (repository.findUserID(email) != null) {
             throw new IllegalArgumentException("A user with this email already exists!");
         }
-        if (adopter.getPassword() == null || adopter.getPassword().isBlank()) {
-            throw new IllegalArgumentException("You must enter a password!");
+        if (users.putIfAbsent(email, adopterID) != null) {
+            throw new IllegalArgumentException("A user with this email already exists!");
         }
 
         adopter.setUserID(adopterID);
-        adopters.put(adopterID, adopter);
-        users.put(email, adopterID);
-        return adopter;
+        return put(EntityType.ADOPTER, adopters, adopterID, adopter);
     }
 
     // READ
     public Adopter getAdopter(UUID adopterID) {
-        if (!(adopters.containsKey(adopterID))) {
+        var adopter = find(EntityType.ADOPTER, adopters, adopterID);
+        if (adopter == null) {
             throw new IllegalArgumentException("User with this ID does not exist!");
         }
-        return adopters.get(adopterID);
+        return adopter;
     }
 
-    public Map<UUID, Adopter> getAllAdopters() {
-        if (adopters.isEmpty()) {
+    public NavigableMap<UUID, Adopter> getAllAdopters() {
+        var all = loaded(EntityType.ADOPTER, adopters);
+        if (all.isEmpty()) {
             throw new IllegalArgumentException("There are no adopters!");
         }
-        return adopters;
+        return all;
+    }
+
+    public NavigableMap<UUID, Adopter> getAdoptersAfter(UUID cursor, int count) {
+        var page = page(EntityType.ADOPTER, adopters, cursor, count);
+        if (cursor == null && page.isEmpty()) {
+            throw new IllegalArgumentException("There are no adopters!");
+        }
+        return page;
     }
 
     //UPDATE
     public boolean setAdopter(UUID adopterID, Adopter adopter) {
-        var theAdopter = adopters.get(adopterID);
-        if (theAdopter == null) {
-            return false;
-        }
-        theAdopter.replaceWith(adopter);
-        return true;
+        return setAdopter(adopterID, adopter, null);
+    }
+
+    public boolean setAdopter(UUID adopterID, Adopter adopter, LongPredicate expectedVersion) {
+        hashPassword(adopter);
+        return replace(EntityType.ADOPTER, adopters, adopterID, adopter, Adopter::replaceWith, current -> {},
+                expectedVersion);
     }
 
     //DELETE
     public boolean removeAdopter(UUID adopterID) {
-        var adopter = adopters.get(adopterID);
-
-        if (!(adopters.containsKey(adopterID))) {
+        if (!remove(EntityType.ADOPTER, adopters, adopterID)) {
             throw new IllegalArgumentException("Adopter with this ID does not exist!");
         }
-        if (adopter == null) {
-            return false;
-        }
-        adopters.remove(adopterID);
         return true;
     }
 
@@ -222,84 +925,157 @@ public class ApplicationState {
         if (advertisement.getAdvertisementID() != null) {
             return addAdvertisement(advertisement.getAdvertisementID(), advertisement);
         }
-        return addAdvertisement(UUID.randomUUID(), advertisement);
+        return addAdvertisement(newID(), advertisement);
     }
 
     public Advertisement addAdvertisement(UUID advertisementID, Advertisement advertisement) {
-        advertisement.setAdvertisementID(advertisementID);
-        advertisements.put(advertisementID, advertisement);
-        return advertisement;
+        link(advertisement, true);
+        return locks.withLock(advertisementID, () -> {
+            advertisement.setAdvertisementID(advertisementID);
+            put(EntityType.ADVERTISEMENT, advertisements, advertisementID, advertisement);
+            indexAdvertisement(advertisement);
+            restamp(EntityType.ADVERTISEMENT, advertisementID);
+            return advertisement;
+        });
+    }
+
+    private void indexAdvertisement(Advertisement advertisement) {
+        advertisementIndex.index(advertisement);
+        textIndex.index(advertisement);
+        geoIndex.index(advertisement);
     }
 
     // READ
     public Advertisement getAdvertisement(UUID advertisementID) {
-        if (!(advertisements.containsKey(advertisementID))) {
+        var advertisement = find(EntityType.ADVERTISEMENT, advertisements, advertisementID);
+        if (advertisement == null) {
             throw new IllegalArgumentException("Advertisement with this id does not exist!");
         }
-        return advertisements.get(advertisementID);
+        return advertisement;
     }
 
-    public Map<UUID, Advertisement> getAllAds() {
-        if (advertisements.isEmpty()) {
+    public NavigableMap<UUID, Advertisement> getAllAds() {
+        var all = loaded(EntityType.ADVERTISEMENT, advertisements);
+        if (all.isEmpty()) {
             throw new IllegalArgumentException("No advertisements found!");
         }
-        return advertisements;
+        return all;
+    }
+
+    public NavigableMap<UUID, Advertisement> getAdsAfter(UUID cursor, int count) {
+        var page = page(EntityType.ADVERTISEMENT, advertisements, cursor, count);
+        if (cursor == null && page.isEmpty()) {
+            throw new IllegalArgumentException("No advertisements found!");
+        }
+        return page;
     }
 
     //UPDATE
     public boolean setAdvertisement(UUID advertisementID, Advertisement advertisement) {
-        var theAdvertisement = advertisements.get(advertisementID);
-        if (theAdvertisement == null) {
-            return false;
-        }
-        theAdvertisement.replaceWith(advertisement);
-        return true;
+        return setAdvertisement(advertisementID, advertisement, null);
+    }
+
+    public boolean setAdvertisement(UUID advertisementID, Advertisement advertisement, LongPredicate expectedVersion) {
+        link(advertisement, true);
+        return replace(EntityType.ADVERTISEMENT, advertisements, advertisementID, advertisement, Advertisement::replaceWith,
+                this::indexAdvertisement, expectedVersion);
     }
 
     //DELETE
     public boolean removeAdvertisement(UUID advertisementID) {
-        var advertisement = advertisements.get(advertisementID);
-        if (advertisement == null) {
-            return false;
-        }
-        advertisements.remove(advertisementID);
-        return true;
+        return locks.withLock(advertisementID, () -> {
+            advertisementIndex.unindex(advertisementID);
+            textIndex.unindex(advertisementID);
+            geoIndex.unindex(advertisementID);
+            return remove(EntityType.ADVERTISEMENT, advertisements, advertisementID);
+        });
     }
 
     //FILTER
     public List<Advertisement> filterAdvertisements(String species, String breed, String gender, List<String> compatibility) {
-        return advertisements.values().stream()
-                .filter(ad -> species == null || species.isEmpty() || species.equals(ad.getPet().getSpecies()))
-                .filter(ad -> breed == null || breed.isEmpty() || breed.equals(ad.getPet().getBreed()))
-                .filter(ad -> gender == null || gender.isEmpty() || matchesGender(ad.getPet().getGender(), gender))
-                .filter(ad -> matchesCompatibility(ad.getPet(), compatibility))
+        if (repository.isPersistent()) {
+            // the index only covers what is in memory, so the database answers; cached instances win
+            var cache = caches.get(EntityType.ADVERTISEMENT);
+            return repository.findAdvertisements(species, breed, gender, CompatibilityMatcher.parse(compatibility))
+                    .stream()
+                    .map(ad -> {
+                        var cached = (Advertisement) cache.peek(ad.getAdvertisementID());
+                        return cached != null ? cached : ad;
+                    })
+                    .collect(Collectors.toList());
+        }
+        var advertisementIDs = advertisementIndex.search(species, breed, gender, CompatibilityMatcher.parse(compatibility));
+        if (advertisementIDs == null) {
+            return new ArrayList<>(loaded(EntityType.ADVERTISEMENT, advertisements).values());
+        }
+        // an ID can briefly outlive its advertisement while a concurrent remove is in flight
+        return advertisementIDs.stream()
+                .map(advertisementID -> lookup(EntityType.ADVERTISEMENT, advertisements, advertisementID))
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
-    private boolean matchesGender(Pet.Gender petGender, String selectedGender) {
-        return selectedGender == null || selectedGender.isEmpty() ||
-                (petGender != null && petGender.name().equalsIgnoreCase(selectedGender));
-    }
-
-    private boolean matchesCompatibility(Pet pet, List<String> compatibility) {
-        if (compatibility == null || compatibility.isEmpty()) {
-            return true; // No compatibility filter applied
-        }
-
-        boolean match = true;
-        if (compatibility.contains("Good with Kids")) {
-            match &= pet.isCompatibleWithKids();
+    // The same filter, restricted to the pet owners within radius km of near (a postcode or a town) and ordered by
+    // distance, nearest first: at most limit advertisements. Pet owners without a known location are never near.
+    public List<Advertisement> filterAdvertisements(String species, String breed, String gender, List<String> compatibility,
+                                                    String near, double radius, int limit) {
+        var origin = Geocoder.locate(near);
+        if (origin == null) {
+            throw new IllegalArgumentException("Unknown postcode or place: " + near + "!");
         }
-        if (compatibility.contains("Good with Other Animals")) {
-            match &= pet.isCompatibleWithOtherAnimals();
+        if (repository.isPersistent()) {
+            var matches = filterAdvertisements(species, breed, gender, compatibility).stream()
+                    .collect(Collectors.toMap(Advertisement::getAdvertisementID, ad -> ad, (a, b) -> a));
+            return geoIndex.nearest(origin, radius, limit, matches::containsKey).stream()
+                    .map(matches::get)
+                    .collect(Collectors.toList());
         }
-        if (compatibility.contains("Suitable for Inexperienced Owners")) {
-            match &= pet.isCompatibleWithInexperiencedOwners();
+        // the attribute matches come sorted by UUID, so membership is a binary search
+        var advertisementIDs = advertisementIndex.search(species, breed, gender, CompatibilityMatcher.parse(compatibility));
+        Predicate<UUID> matches = advertisementIDs == null ? advertisementID -> true
+                : advertisementID -> Collections.binarySearch(advertisementIDs, advertisementID) >= 0;
+        return geoIndex.nearest(origin, radius, limit, matches).stream()
+                .map(advertisementID -> lookup(EntityType.ADVERTISEMENT, advertisements, advertisementID))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // The advertisements nearest to near first, at most limit of them, ordered as the filter above orders them.
+    // Used to merge the nearest-first answers of several shards.
+    public static List<Advertisement> nearestFirst(Collection<Advertisement> advertisements, String near, int limit) {
+        var origin = Geocoder.locate(near);
+        if (origin == null) {
+            throw new IllegalArgumentException("Unknown postcode or place: " + near + "!");
         }
-        if (compatibility.contains("Suitable for Families")) {
-            match &= pet.isCompatibleWithFamilies();
+        record Hit(Advertisement advertisement, double distance) {
         }
-        return match;
+        return advertisements.stream()
+                .map(advertisement -> {
+                    var petOwner = advertisement.getPetOwner();
+                    var point = petOwner == null ? null : Geocoder.locate(petOwner.getLocation());
+                    return new Hit(advertisement,
+                            point == null ? Double.POSITIVE_INFINITY : Geocoder.distance(origin, point));
+                })
+                .sorted(Comparator.comparingDouble(Hit::distance)
+                        .thenComparing(hit -> hit.advertisement().getAdvertisementID()))
+                .limit(limit)
+                .map(Hit::advertisement)
+                .collect(Collectors.toList());
+    }
+
+    //FACETS
+    // Counts for the same criteria as filterAdvertisements, without walking the advertisements
+    public AdvertisementFacets getAdvertisementFacets(String species, String breed, String gender, List<String> compatibility) {
+        return advertisementIndex.facets(species, breed, gender, CompatibilityMatcher.parse(compatibility));
+    }
+
+    //SEARCH
+    // Free text over the pets of the advertisements, best match first
+    public List<Advertisement> searchAdvertisements(String query, int limit) {
+        return textIndex.search(query, limit).stream()
+                .map(advertisementID -> lookup(EntityType.ADVERTISEMENT, advertisements, advertisementID))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     //ADOPTION REQUESTS
@@ -308,84 +1084,251 @@ public class ApplicationState {
         if (adoptionRequest.getRequestID() != null) {
             return addAdoptionRequest(adoptionRequest.getRequestID(), adoptionRequest);
         }
-        return addAdoptionRequest(UUID.randomUUID(), adoptionRequest);
+        return addAdoptionRequest(newID(), adoptionRequest);
     }
 
     public AdoptionRequest addAdoptionRequest(UUID adoptionRequestID, AdoptionRequest adoptionRequest) {
         adoptionRequest.setRequestID(adoptionRequestID);
         adoptionRequest.setMessage(adoptionRequest.getMessage());
-        adoptionRequests.put(adoptionRequestID, adoptionRequest);
-        return adoptionRequest;
+        link(adoptionRequest, true);
+        return locks.withLock(adoptionRequestID, () -> {
+            put(EntityType.ADOPTION_REQUEST, adoptionRequests, adoptionRequestID, adoptionRequest);
+            adoptionRequestIndex.index(adoptionRequest);
+            return adoptionRequest;
+        });
     }
 
     // READ
     public AdoptionRequest getAdoptionRequest(UUID adoptionRequestID) {
-        if (!(adoptionRequests.containsKey(adoptionRequestID))) {
+        var adoptionRequest = find(EntityType.ADOPTION_REQUEST, adoptionRequests, adoptionRequestID);
+        if (adoptionRequest == null) {
             throw new IllegalArgumentException("No advertisement with this ID found!");
         }
-        return adoptionRequests.get(adoptionRequestID);
+        return adoptionRequest;
+    }
+
+    public NavigableMap<UUID, AdoptionRequest> getAllAdoptionRequests() {
+        var all = loaded(EntityType.ADOPTION_REQUEST, adoptionRequests);
+        if (all.isEmpty()) {
+            throw new IllegalArgumentException("No adoption requests found!");
+        }
+        return all;
     }
 
-    public Map<UUID, AdoptionRequest> getAllAdoptionRequests() {
-        if (adoptionRequests.isEmpty()) {
+    public NavigableMap<UUID, AdoptionRequest> getAdoptionRequestsAfter(UUID cursor, int count) {
+        var page = page(EntityType.ADOPTION_REQUEST, adoptionRequests, cursor, count);
+        if (cursor == null && page.isEmpty()) {
             throw new IllegalArgumentException("No adoption requests found!");
         }
-        return adoptionRequests;
+        return page;
     }
 
     //UPDATE
     public boolean setAdoptionRequest(UUID adoptionRequestID, AdoptionRequest adoptionRequest) {
-        var theAdoptionRequest = adoptionRequests.get(adoptionRequestID);
-        if (theAdoptionRequest == null) {
-            return false;
-        }
-        theAdoptionRequest.replaceWith(adoptionRequest);
-        return true;
+        return setAdoptionRequest(adoptionRequestID, adoptionRequest, null);
+    }
+
+    public boolean setAdoptionRequest(UUID adoptionRequestID, AdoptionRequest adoptionRequest,
+                                      LongPredicate expectedVersion) {
+        link(adoptionRequest, true);
+        return replace(EntityType.ADOPTION_REQUEST, adoptionRequests, adoptionRequestID, adoptionRequest,
+                AdoptionRequest::replaceWith, adoptionRequestIndex::index, expectedVersion);
+    }
+
+    // Stores the request after it was accepted, rejected or cancelled; it no longer counts as pending.
+    // Closed before the update is journaled, so that its record carries the closed status.
+    public boolean closeAdoptionRequest(UUID adoptionRequestID, AdoptionRequest adoptionRequest) {
+        return locks.withLock(adoptionRequestID, () -> {
+            boolean replaced = replace(EntityType.ADOPTION_REQUEST, adoptionRequests, adoptionRequestID,
+                    adoptionRequest, AdoptionRequest::replaceWith, current -> {
+                        adoptionRequestIndex.index(current);
+                        adoptionRequestIndex.close(adoptionRequestID);
+                    });
+            if (replaced) {
+                repository.saveClosed(adoptionRequestID);
+            }
+            return replaced;
+        });
     }
 
     //DELETE
     public boolean removeAdoptionRequest(UUID adoptionRequestID) {
-        var adoptionRequest = adoptionRequests.get(adoptionRequestID);
-        if (!(adoptionRequests.containsKey(adoptionRequestID))) {
+        if (!deleteAdoptionRequest(adoptionRequestID)) {
             throw new IllegalArgumentException("Adoption request with this ID does not exist!");
         }
-        if (adoptionRequest == null) {
-            return false;
-        }
-        adoptionRequests.remove(adoptionRequestID);
         return true;
     }
 
+    private boolean deleteAdoptionRequest(UUID adoptionRequestID) {
+        return locks.withLock(adoptionRequestID, () -> {
+            adoptionRequestIndex.unindex(adoptionRequestID);
+            return remove(EntityType.ADOPTION_REQUEST, adoptionRequests, adoptionRequestID);
+        });
+    }
+
+    //QUERIES
+    public List<AdoptionRequest> getAdoptionRequestsForAdvertisement(UUID advertisementID) {
+        if (repository.isPersistent()) {
+            return adoptionRequestsOf(repository.findAdoptionRequestIDs(Repository.RequestLink.ADVERTISEMENT, advertisementID));
+        }
+        return adoptionRequestsOf(adoptionRequestIndex.requestsForAdvertisement(advertisementID));
+    }
+
+    public List<AdoptionRequest> getAdoptionRequestsByAdopter(UUID adopterID) {
+        if (repository.isPersistent()) {
+            return adoptionRequestsOf(repository.findAdoptionRequestIDs(Repository.RequestLink.ADOPTER, adopterID));
+        }
+        return adoptionRequestsOf(adoptionRequestIndex.requestsByAdopter(adopterID));
+    }
+
+    public List<AdoptionRequest> getPendingAdoptionRequests(UUID petOwnerID) {
+        if (repository.isPersistent()) {
+            return adoptionRequestsOf(repository.findAdoptionRequestIDs(Repository.RequestLink.PET_OWNER, petOwnerID)
+                    .stream()
+                    .filter(adoptionRequestIndex::isPending)
+                    .collect(Collectors.toList()));
+        }
+        return adoptionRequestsOf(adoptionRequestIndex.pendingRequestsForPetOwner(petOwnerID));
+    }
+
+    public boolean isPendingAdoptionRequest(UUID adoptionRequestID) {
+        return adoptionRequestIndex.isPending(adoptionRequestID);
+    }
+
+    // an ID can briefly outlive its request while a concurrent remove is in flight
+    private List<AdoptionRequest> adoptionRequestsOf(List<UUID> adoptionRequestIDs) {
+        return adoptionRequestIDs.stream()
+                .map(adoptionRequestID -> lookup(EntityType.ADOPTION_REQUEST, adoptionRequests, adoptionRequestID))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
     //authentication
+    // null when there is no such user or the password is wrong, which the caller cannot tell apart
     public UUID authenticate(String email, String password, boolean isPetOwner) {
         var uuid = users.get(email);
         if (uuid == null) {
-            return null;
+            uuid = repository.findUserID(email);
+            if (uuid == null) {
+                Passwords.verifyDummy(password);
+                return null;
+            }
+            users.putIfAbsent(email, uuid);
         }
         User user;
         if (isPetOwner) {
-            user = petOwners.get(uuid);
+            user = lookup(EntityType.PET_OWNER, petOwners, uuid);
         } else {
-            user = adopters.get(uuid);
+            user = lookup(EntityType.ADOPTER, adopters, uuid);
         }
         if (user == null) {
+            Passwords.verifyDummy(password);
             return null;
         }
-        // Check if the provided password matches
-        if (user.getPassword().equals(password)) {
+        // Check if the provided password matches, in constant time
+        if (Passwords.verify(password, user.getPassword())) {
             return uuid; // Authentication successful
         }
-        throw new IllegalArgumentException("Incorrect password or email");
+        return null;
+    }
+
+    //JOURNAL
+    private void replay(EntityType type, UUID id, Object entity, boolean closed) {
+        switch (type) {
+            case PET -> {
+                if (entity == null) {
+                    removePet(id);
+                } else if (!setPet(id, (Pet) entity)) {
+                    addPet(id, (Pet) entity);
+                }
+            }
+            case PET_OWNER -> {
+                if (entity == null) {
+                    remove(EntityType.PET_OWNER, petOwners, id);
+                } else if (!setPetOwner(id, (PetOwner) entity)) {
+                    addPetOwner(id, (PetOwner) entity);
+                }
+            }
+            case ADOPTER -> {
+                if (entity == null) {
+                    remove(EntityType.ADOPTER, adopters, id);
+                } else if (!setAdopter(id, (Adopter) entity)) {
+                    addAdopter(id, (Adopter) entity);
+                }
+            }
+            case ADVERTISEMENT -> {
+                if (entity == null) {
+                    removeAdvertisement(id);
+                } else if (!setAdvertisement(id, (Advertisement) entity)) {
+                    addAdvertisement(id, (Advertisement) entity);
+                }
+            }
+            case ADOPTION_REQUEST -> {
+                if (entity == null) {
+                    deleteAdoptionRequest(id);
+                } else if (!setAdoptionRequest(id, (AdoptionRequest) entity)) {
+                    addAdoptionRequest(id, (AdoptionRequest) entity);
+                }
+                if (closed) {
+                    adoptionRequestIndex.close(id);
+                }
+            }
+        }
+    }
+
+    private void writeSnapshot(Journal.Sink sink) {
+        writeSnapshot(sink, EntityType.PET, pets);
+        writeSnapshot(sink, EntityType.PET_OWNER, petOwners);
+        writeSnapshot(sink, EntityType.ADOPTER, adopters);
+        writeSnapshot(sink, EntityType.ADVERTISEMENT, advertisements);
+        writeSnapshot(sink, EntityType.ADOPTION_REQUEST, adoptionRequests);
+    }
+
+    // Merges the live map with the entities still sitting untouched in the previous snapshot, in UUID order
+    private <T> void writeSnapshot(Journal.Sink sink, EntityType type, NavigableMap<UUID, T> map) {
+        var snapshot = baseline;
+        int count = snapshot == null ? 0 : snapshot.count(type);
+        int position = 0;
+        for (var entry : map.entrySet()) {
+            for (; position < count && snapshot.id(type, position).compareTo(entry.getKey()) < 0; position++) {
+                writeUntouched(sink, snapshot, type, map, position);
+            }
+            if (position < count && snapshot.id(type, position).equals(entry.getKey())) {
+                position++;
+            }
+            sink.upsert(type, entry.getKey(), entry.getValue(), isClosed(type, entry.getKey()));
+        }
+        for (; position < count; position++) {
+            writeUntouched(sink, snapshot, type, map, position);
+        }
+    }
+
+    private <T> void writeUntouched(Journal.Sink sink, SnapshotFile snapshot, EntityType type, Map<UUID, T> map,
+                                    int position) {
+        var id = snapshot.id(type, position);
+        // check retired before the map: an entity materialized after the map iterator passed it is only in the map
+        if (!snapshot.isRetired(type, position)) {
+            sink.copy(type, id, snapshot.record(type, position));
+            return;
+        }
+        var entity = map.get(id);
+        if (entity != null) {
+            sink.upsert(type, id, entity, isClosed(type, id));
+        }
     }
 
     // create objects
     private void populateApplicationState() {
 
+        // pets and advertisements are placed with their owner, adoption requests with their advertisement
+        var aliceID = UUID.fromString("d79b117e-6cd5-44f0-8ab0-8c87ccda04f0");
+        var bernardID = UUID.fromString("c3498ff2-92af-4bf0-b6a2-6230baba08f6");
+
         /*
         CREATE PETS
          */
 
-        var pepper = addPet(UUID.fromString("b8d0c81d-e1c6-4708-bd02-d218a23e4805"),
+        var pepper = addPet(sampleID("b8d0c81d-e1c6-4708-bd02-d218a23e4805", aliceID),
                 new Pet("Pepper",
                         "Dog",
                         "Labrador",
@@ -403,7 +1346,7 @@ public class ApplicationState {
                         "None")
         );
 
-        var nala = addPet(UUID.fromString("358e3775-682a-4b85-a2e1-d3bf0632baea"),
+        var nala = addPet(sampleID("358e3775-682a-4b85-a2e1-d3bf0632baea", bernardID),
                 new Pet("Nala",
                         "Dog",
                         "Shih-tzu",
@@ -420,7 +1363,7 @@ public class ApplicationState {
                         true,
                         "Cyst on back"));
 
-        var simba = addPet(UUID.fromString("17792447-fd66-464b-b27c-615a7d420d05"),
+        var simba = addPet(sampleID("17792447-fd66-464b-b27c-615a7d420d05", bernardID),
                 new Pet("Simba",
                         "Dog",
                         "Shih-tzu",
@@ -441,7 +1384,7 @@ public class ApplicationState {
          CREATE PET OWNERS
          */
 
-        var alice = addPetOwner(UUID.fromString("d79b117e-6cd5-44f0-8ab0-8c87ccda04f0"),
+        var alice = addPetOwner(aliceID,
                 new PetOwner(
                         "alice@gmail.com",
                         "password123",
@@ -456,7 +1399,7 @@ public class ApplicationState {
                 ));
 
         var bernard = addPetOwner(
-                UUID.fromString("c3498ff2-92af-4bf0-b6a2-6230baba08f6"),
+                bernardID,
                 new PetOwner(
                         "bernard@gmail.com",
                         "password",
@@ -504,22 +1447,24 @@ public class ApplicationState {
          */
 
         var advertisementForSimba = bernard.createAdvertisement(simba);
-        addAdvertisement(UUID.fromString("356ba347-299d-48f2-b32e-6bc9144101ec"), advertisementForSimba);
+        addAdvertisement(sampleID("356ba347-299d-48f2-b32e-6bc9144101ec", bernardID), advertisementForSimba);
 
         var advertisementForNala = bernard.createAdvertisement(nala);
-        addAdvertisement(UUID.fromString("f2a84043-a4bc-42d8-a6c0-21d5719ed0b1"), advertisementForNala);
+        addAdvertisement(sampleID("f2a84043-a4bc-42d8-a6c0-21d5719ed0b1", bernardID), advertisementForNala);
 
         var advertisementForPepper = alice.createAdvertisement(pepper);
-        addAdvertisement(UUID.fromString("7e6d6935-c2e3-4d2b-b649-72e0a16a1eb1"), advertisementForPepper);
+        addAdvertisement(sampleID("7e6d6935-c2e3-4d2b-b649-72e0a16a1eb1", aliceID), advertisementForPepper);
 
         /*
         CREATE REQUESTS
          */
         var requestFromJane = jane.createAdoptionRequest(advertisementForSimba, "hello, i am interested in adopting this dog. Please contact me at +41 77 888 43 43");
-        addAdoptionRequest(UUID.fromString("a63d174b-9954-44f1-b1f2-7c3a6918ec9f"), requestFromJane);
+        addAdoptionRequest(sampleID("a63d174b-9954-44f1-b1f2-7c3a6918ec9f",
+                advertisementForSimba.getAdvertisementID()), requestFromJane);
 
         var requestFromBob = bob.createAdoptionRequest(advertisementForSimba, "Hi there! Very much interested in Simba!");
-        addAdoptionRequest(UUID.fromString("58e5f60f-2d88-4c3b-984b-6f50a5f983cd"), requestFromBob);
+        addAdoptionRequest(sampleID("58e5f60f-2d88-4c3b-984b-6f50a5f983cd",
+                advertisementForSimba.getAdvertisementID()), requestFromBob);
 
     }
 }
@@ -0,0 +1,26 @@
+package ch.unil.furrybuddy.domain;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+import java.util.UUID;
+
+// An adoption request that was accepted, rejected or cancelled, for JpaRepository: AdoptionRequest has no column
+// for it, and the pending lists of the pet owners are rebuilt from these rows at startup.
+@Entity
+public class ClosedAdoptionRequest {
+
+    @Id
+    private UUID requestID;
+
+    public ClosedAdoptionRequest() {
+    }
+
+    public ClosedAdoptionRequest(UUID requestID) {
+        this.requestID = requestID;
+    }
+
+    public UUID getRequestID() {
+        return requestID;
+    }
+}
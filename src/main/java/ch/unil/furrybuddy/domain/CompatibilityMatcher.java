@@ -0,0 +1,81 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.List;
+
+// Packs the four Pet compatibility flags into an int so that matching a pet is one AND and compare
+public final class CompatibilityMatcher {
+
+    public static final String GOOD_WITH_KIDS = "Good with Kids";
+    public static final String GOOD_WITH_OTHER_ANIMALS = "Good with Other Animals";
+    public static final String INEXPERIENCED_OWNERS = "Suitable for Inexperienced Owners";
+    public static final String FAMILIES = "Suitable for Families";
+
+    public static final int KIDS = 1;
+    public static final int OTHER_ANIMALS = 1 << 1;
+    public static final int INEXPERIENCED = 1 << 2;
+    public static final int FAMILY = 1 << 3;
+
+    public static final int NONE = 0;
+
+    private CompatibilityMatcher() {
+    }
+
+    // Parsed once per query; unknown labels are ignored like before
+    public static int parse(List<String> compatibility) {
+        if (compatibility == null || compatibility.isEmpty()) {
+            return NONE;
+        }
+        int mask = NONE;
+        for (var label : compatibility) {
+            mask |= flagOf(label);
+        }
+        return mask;
+    }
+
+    public static int flagOf(String label) {
+        if (label == null) {
+            return NONE;
+        }
+        return switch (label) {
+            case GOOD_WITH_KIDS -> KIDS;
+            case GOOD_WITH_OTHER_ANIMALS -> OTHER_ANIMALS;
+            case INEXPERIENCED_OWNERS -> INEXPERIENCED;
+            case FAMILIES -> FAMILY;
+            default -> NONE;
+        };
+    }
+
+    public static String labelOf(int flag) {
+        return switch (flag) {
+            case KIDS -> GOOD_WITH_KIDS;
+            case OTHER_ANIMALS -> GOOD_WITH_OTHER_ANIMALS;
+            case INEXPERIENCED -> INEXPERIENCED_OWNERS;
+            case FAMILY -> FAMILIES;
+            default -> null;
+        };
+    }
+
+    public static int maskOf(Pet pet) {
+        if (pet == null) {
+            return NONE;
+        }
+        int mask = NONE;
+        if (pet.isCompatibleWithKids()) {
+            mask |= KIDS;
+        }
+        if (pet.isCompatibleWithOtherAnimals()) {
+            mask |= OTHER_ANIMALS;
+        }
+        if (pet.isCompatibleWithInexperiencedOwners()) {
+            mask |= INEXPERIENCED;
+        }
+        if (pet.isCompatibleWithFamilies()) {
+            mask |= FAMILY;
+        }
+        return mask;
+    }
+
+    public static boolean matches(int petMask, int required) {
+        return (petMask & required) == required;
+    }
+}
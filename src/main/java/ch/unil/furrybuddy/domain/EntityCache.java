@@ -0,0 +1,261 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded W-TinyLFU cache: new entries land in a small LRU window, and an entry leaving the window only
+// enters the main LRU if it has been asked for more often than the main victim it would replace.
+// One scan over many cold entities therefore cannot push the hot ones out.
+// The cache is split into segments, each guarded by its own monitor and with its own frequency sketch.
+public final class EntityCache<T> extends AbstractMap<UUID, T> {
+
+    public static final String SIZE_PROPERTY = "furrybuddy.cache.size";
+    public static final int DEFAULT_SIZE = 10000;
+
+    public record Stats(long hits, long misses, long evictions, int size, int capacity) {
+    }
+
+    private final Segment<T>[] segments;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public EntityCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache size must be positive!");
+        }
+        this.capacity = capacity;
+        int count = Integer.highestOneBit(Math.max(1, Math.min(16, capacity / 64)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // the first segments take the remainder so the capacities add up exactly
+            segments[i] = new Segment<>(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size(), capacity);
+    }
+
+    @Override
+    public T get(Object key) {
+        if (!(key instanceof UUID id)) {
+            return null;
+        }
+        var value = segmentFor(id).get(id);
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    // Same as get, without counting towards the hit ratio
+    T peek(UUID id) {
+        return segmentFor(id).get(id);
+    }
+
+    @Override
+    public T put(UUID id, T value) {
+        var segment = segmentFor(id);
+        synchronized (segment) {
+            var previous = segment.remove(id);
+            evictions.add(segment.admit(id, value));
+            return previous;
+        }
+    }
+
+    @Override
+    public T putIfAbsent(UUID id, T value) {
+        var segment = segmentFor(id);
+        synchronized (segment) {
+            var current = segment.get(id);
+            if (current == null) {
+                evictions.add(segment.admit(id, value));
+            }
+            return current;
+        }
+    }
+
+    @Override
+    public T remove(Object key) {
+        if (!(key instanceof UUID id)) {
+            return null;
+        }
+        var segment = segmentFor(id);
+        synchronized (segment) {
+            return segment.remove(id);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof UUID id && segmentFor(id).get(id) != null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            synchronized (segment) {
+                size += segment.window.size() + segment.main.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (var segment : segments) {
+            synchronized (segment) {
+                segment.window.clear();
+                segment.main.clear();
+            }
+        }
+    }
+
+    // A copy: the segments reorder on every read, so they cannot be iterated live
+    @Override
+    public Set<Entry<UUID, T>> entrySet() {
+        var entries = new ArrayList<Entry<UUID, T>>();
+        for (var segment : segments) {
+            synchronized (segment) {
+                segment.window.forEach((id, value) -> entries.add(new SimpleImmutableEntry<>(id, value)));
+                segment.main.forEach((id, value) -> entries.add(new SimpleImmutableEntry<>(id, value)));
+            }
+        }
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<UUID, T>> iterator() {
+                return entries.iterator();
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    private Segment<T> segmentFor(UUID id) {
+        return segments[spread(id.hashCode()) & (segments.length - 1)];
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Segment<T> {
+        private final LinkedHashMap<UUID, T> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<UUID, T> main = new LinkedHashMap<>(16, 0.75f, true);
+        private final int windowCapacity;
+        private final int mainCapacity;
+        private final FrequencySketch sketch;
+
+        Segment(int capacity) {
+            // 1% window as in the W-TinyLFU paper, at least one slot
+            windowCapacity = Math.max(1, capacity / 100);
+            mainCapacity = Math.max(0, capacity - windowCapacity);
+            sketch = new FrequencySketch(capacity);
+        }
+
+        synchronized T get(UUID id) {
+            sketch.increment(id);
+            var value = window.get(id);
+            return value != null ? value : main.get(id);
+        }
+
+        // Caller holds the monitor
+        T remove(UUID id) {
+            var value = window.remove(id);
+            return value != null ? value : main.remove(id);
+        }
+
+        // Caller holds the monitor. Returns the number of entries dropped to make room.
+        int admit(UUID id, T value) {
+            sketch.increment(id);
+            window.put(id, value);
+            if (window.size() <= windowCapacity) {
+                return 0;
+            }
+            var candidate = eldest(window);
+            window.remove(candidate.getKey());
+            if (main.size() < mainCapacity) {
+                main.put(candidate.getKey(), candidate.getValue());
+                return 0;
+            }
+            if (mainCapacity == 0) {
+                return 1;
+            }
+            var victim = eldest(main);
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+                main.remove(victim.getKey());
+                main.put(candidate.getKey(), candidate.getValue());
+            }
+            return 1;
+        }
+
+        private static <T> Map.Entry<UUID, T> eldest(LinkedHashMap<UUID, T> map) {
+            return map.entrySet().iterator().next();
+        }
+    }
+
+    // Count-min sketch of 4-bit counters; all counters are halved once enough increments have been seen,
+    // so past popularity fades out. Guarded by the owning segment's monitor.
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97CB3127, 0x7A6D8F13, 0xC3A5C85D, 0xF0C3A1E7};
+
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+            table = new byte[width * DEPTH];
+            mask = width - 1;
+            sampleSize = 10 * Math.max(16, capacity);
+        }
+
+        void increment(UUID id) {
+            int hash = id.hashCode();
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = slot(row, hash);
+                if (table[index] < 15) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(UUID id) {
+            int hash = id.hashCode();
+            int frequency = 15;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, table[slot(row, hash)]);
+            }
+            return frequency;
+        }
+
+        private int slot(int row, int hash) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 17;
+            return row * (mask + 1) + (h & mask);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.UUID;
+
+// A change of ApplicationState, fired asynchronously once it is durable, whatever endpoint made it. entity is the
+// entity after the change, or the one removed (null when it was never loaded).
+public record EntityChange(Kind kind, EntityType type, UUID id, Object entity) {
+
+    public enum Kind {
+        CREATED,
+        UPDATED,
+        REMOVED
+    }
+}
@@ -0,0 +1,49 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.UUID;
+
+// The entity kinds held by ApplicationState, as written to the journal and snapshots
+public enum EntityType {
+    PET(Pet.class),
+    PET_OWNER(PetOwner.class),
+    ADOPTER(Adopter.class),
+    ADVERTISEMENT(Advertisement.class),
+    ADOPTION_REQUEST(AdoptionRequest.class);
+
+    private static final EntityType[] VALUES = values();
+
+    private final Class<?> entityClass;
+
+    EntityType(Class<?> entityClass) {
+        this.entityClass = entityClass;
+    }
+
+    public Class<?> entityClass() {
+        return entityClass;
+    }
+
+    public UUID idOf(Object entity) {
+        return switch (this) {
+            case PET -> ((Pet) entity).getPetID();
+            case PET_OWNER, ADOPTER -> ((User) entity).getUserID();
+            case ADVERTISEMENT -> ((Advertisement) entity).getAdvertisementID();
+            case ADOPTION_REQUEST -> ((AdoptionRequest) entity).getRequestID();
+        };
+    }
+
+    public static EntityType of(Class<?> entityClass) {
+        for (var type : VALUES) {
+            if (type.entityClass == entityClass) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown entity class " + entityClass.getSimpleName() + "!");
+    }
+
+    static EntityType of(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown entity type " + ordinal + "!");
+        }
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,246 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+// Advertisements on a grid of CELL_DEGREES cells by the geocoded location of their pet owner. Within a cell they are
+// grouped by point, since a whole postal district shares one. Nearest-first queries walk rings of cells outwards
+// from the origin and stop once no further ring can hold anything closer than the current results; when the rings
+// get larger than the number of occupied cells, the remaining cells are visited in order of distance instead.
+// Advertisements whose owner has no known location are not on the grid. Longitudes do not wrap around at 180.
+// Callers must serialize index/unindex for the same advertisement (ApplicationState uses its lock stripes).
+final class GeoIndex {
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double CELL_DEGREES = 0.1;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private record Entry(UUID petOwnerID, Geocoder.Point point) {
+    }
+
+    private record Hit(UUID advertisementID, double distance) {
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Map<Geocoder.Point, Set<UUID>>> cells = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byPetOwner = new ConcurrentHashMap<>();
+
+    void clear() {
+        entries.clear();
+        cells.clear();
+        byPetOwner.clear();
+    }
+
+    void index(Advertisement advertisement) {
+        var petOwner = advertisement.getPetOwner();
+        if (petOwner == null) {
+            unindex(advertisement.getAdvertisementID());
+            return;
+        }
+        index(advertisement.getAdvertisementID(), petOwner.getUserID(), Geocoder.locate(petOwner.getLocation()));
+    }
+
+    void index(UUID advertisementID, UUID petOwnerID, Geocoder.Point point) {
+        var previous = entries.put(advertisementID, new Entry(petOwnerID, point));
+        if (previous != null) {
+            unlink(advertisementID, previous);
+        }
+        link(advertisementID, new Entry(petOwnerID, point));
+    }
+
+    void unindex(UUID advertisementID) {
+        var previous = entries.remove(advertisementID);
+        if (previous != null) {
+            unlink(advertisementID, previous);
+        }
+    }
+
+    Set<UUID> advertisementsOfPetOwner(UUID petOwnerID) {
+        return byPetOwner.getOrDefault(petOwnerID, Set.of());
+    }
+
+    // For a pet owner who moved; advertisements handed to someone else in the meantime are left alone
+    void move(UUID advertisementID, UUID petOwnerID, Geocoder.Point point) {
+        var entry = entries.get(advertisementID);
+        if (entry != null && petOwnerID.equals(entry.petOwnerID())) {
+            index(advertisementID, petOwnerID, point);
+        }
+    }
+
+    // At most limit advertisements within radius km of origin that pass filter, nearest first
+    // (ties in UUID order)
+    List<UUID> nearest(Geocoder.Point origin, double radius, int limit, Predicate<UUID> filter) {
+        var best = new PriorityQueue<Hit>(Comparator.comparingDouble(Hit::distance).reversed()
+                .thenComparing(Hit::advertisementID, Comparator.reverseOrder()));
+        int row = row(origin.latitude());
+        int column = column(origin.longitude());
+        int occupied = cells.size();
+        int visited = 0;
+        for (int ring = 0; visited < occupied; ring++) {
+            if (ring > 0 && beyond(ringDistance(origin, row, column, ring), radius, limit, best)) {
+                break;
+            }
+            if (8L * ring > occupied - visited) {
+                visitRemaining(origin, row, column, ring, radius, limit, filter, best);
+                break;
+            }
+            for (int i = -ring; i <= ring; i++) {
+                visited += visit(row - ring, column + i, origin, radius, limit, filter, best);
+                if (ring > 0) {
+                    visited += visit(row + ring, column + i, origin, radius, limit, filter, best);
+                }
+            }
+            for (int i = -ring + 1; i <= ring - 1; i++) {
+                visited += visit(row + i, column - ring, origin, radius, limit, filter, best);
+                visited += visit(row + i, column + ring, origin, radius, limit, filter, best);
+            }
+        }
+
+        var hits = new ArrayList<>(best);
+        hits.sort(Comparator.comparingDouble(Hit::distance).thenComparing(Hit::advertisementID));
+        var result = new ArrayList<UUID>(hits.size());
+        for (var hit : hits) {
+            result.add(hit.advertisementID());
+        }
+        return result;
+    }
+
+    // The cells outside the first rings, closest first
+    private void visitRemaining(Geocoder.Point origin, int row, int column, int ring, double radius, int limit,
+                                Predicate<UUID> filter, PriorityQueue<Hit> best) {
+        record Cell(long key, double distance) {
+        }
+        var remaining = new ArrayList<Cell>();
+        for (var key : cells.keySet()) {
+            int cellRow = (int) (key >> 32);
+            int cellColumn = (int) (long) key;
+            if (Math.max(Math.abs(cellRow - row), Math.abs(cellColumn - column)) >= ring) {
+                remaining.add(new Cell(key, cellDistance(origin, cellRow, cellColumn)));
+            }
+        }
+        remaining.sort(Comparator.comparingDouble(Cell::distance));
+        for (var cell : remaining) {
+            if (beyond(cell.distance(), radius, limit, best)) {
+                return;
+            }
+            visit(cells.get(cell.key()), origin, radius, limit, filter, best);
+        }
+    }
+
+    private int visit(int row, int column, Geocoder.Point origin, double radius, int limit,
+                      Predicate<UUID> filter, PriorityQueue<Hit> best) {
+        var points = cells.get(key(row, column));
+        if (points == null) {
+            return 0;
+        }
+        visit(points, origin, radius, limit, filter, best);
+        return 1;
+    }
+
+    private static void visit(Map<Geocoder.Point, Set<UUID>> points, Geocoder.Point origin, double radius, int limit,
+                              Predicate<UUID> filter, PriorityQueue<Hit> best) {
+        if (points == null) {
+            return;
+        }
+        points.forEach((point, advertisementIDs) -> {
+            double distance = Geocoder.distance(origin, point);
+            for (var advertisementID : advertisementIDs) {
+                if (beyond(distance, radius, limit, best) || best.size() >= limit && distance == best.peek().distance()
+                        && advertisementID.compareTo(best.peek().advertisementID()) > 0) {
+                    return; // the rest of this point comes later in UUID order, so it would lose every tie
+                }
+                if (filter.test(advertisementID)) {
+                    best.add(new Hit(advertisementID, distance));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+        });
+    }
+
+    // Whether nothing at that distance or further can make it into the results any more
+    private static boolean beyond(double distance, double radius, int limit, PriorityQueue<Hit> best) {
+        return distance > radius || best.size() >= limit && distance > best.peek().distance();
+    }
+
+    // A lower bound on the distance from origin to any cell at least ring cells away from its own
+    private static double ringDistance(Geocoder.Point origin, int row, int column, int ring) {
+        double south = origin.latitude() - (row - ring + 1) * CELL_DEGREES;
+        double north = (row + ring) * CELL_DEGREES - origin.latitude();
+        double west = origin.longitude() - (column - ring + 1) * CELL_DEGREES;
+        double east = (column + ring) * CELL_DEGREES - origin.longitude();
+        return Math.min(latitudeDistance(Math.min(south, north)), longitudeDistance(origin, Math.min(west, east)));
+    }
+
+    // A lower bound on the distance from origin to any point of the cell
+    private static double cellDistance(Geocoder.Point origin, int row, int column) {
+        double latitude = Math.max(row * CELL_DEGREES - origin.latitude(), origin.latitude() - (row + 1) * CELL_DEGREES);
+        double longitude = Math.max(column * CELL_DEGREES - origin.longitude(),
+                origin.longitude() - (column + 1) * CELL_DEGREES);
+        return Math.max(latitudeDistance(latitude), longitudeDistance(origin, longitude));
+    }
+
+    // Any point that many degrees of latitude away is at least this far
+    private static double latitudeDistance(double degrees) {
+        return Math.max(0, degrees) * KM_PER_DEGREE;
+    }
+
+    // Any point beyond the meridian that many degrees of longitude away is at least as far as the meridian itself
+    private static double longitudeDistance(Geocoder.Point origin, double degrees) {
+        if (degrees <= 0) {
+            return 0;
+        }
+        double sine = Math.cos(Math.toRadians(origin.latitude())) * Math.sin(Math.toRadians(Math.min(90, degrees)));
+        return EARTH_RADIUS_KM * Math.asin(sine);
+    }
+
+    private static int row(double latitude) {
+        return (int) Math.floor(latitude / CELL_DEGREES);
+    }
+
+    private static int column(double longitude) {
+        return (int) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    private void link(UUID advertisementID, Entry entry) {
+        Postings.add(byPetOwner, entry.petOwnerID(), advertisementID);
+        var point = entry.point();
+        if (point != null) {
+            // add inside compute so it cannot race with unlink() dropping an emptied cell
+            cells.compute(key(row(point.latitude()), column(point.longitude())), (k, points) -> {
+                if (points == null) {
+                    points = new ConcurrentHashMap<>();
+                }
+                points.computeIfAbsent(point, p -> new ConcurrentSkipListSet<>()).add(advertisementID);
+                return points;
+            });
+        }
+    }
+
+    private void unlink(UUID advertisementID, Entry entry) {
+        Postings.remove(byPetOwner, entry.petOwnerID(), advertisementID);
+        var point = entry.point();
+        if (point != null) {
+            cells.computeIfPresent(key(row(point.latitude()), column(point.longitude())), (k, points) -> {
+                points.computeIfPresent(point, (p, ids) -> {
+                    ids.remove(advertisementID);
+                    return ids.isEmpty() ? null : ids;
+                });
+                return points.isEmpty() ? null : points;
+            });
+        }
+    }
+}
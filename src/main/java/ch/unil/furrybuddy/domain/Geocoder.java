@@ -0,0 +1,124 @@
+package ch.unil.furrybuddy.domain;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Postcodes to coordinates, from the district table bundled in postcodes.csv: no network lookups. A four-digit
+// postcode is Swiss, a five-digit one French; only the leading two digits count. When the postcode is unknown the
+// city is matched against the district towns, by their local name or one of the common other ones in OTHER_NAMES.
+final class Geocoder {
+
+    record Point(double latitude, double longitude) {
+    }
+
+    private static final Map<String, Point> BY_PREFIX = new HashMap<>();
+    private static final Map<String, Point> BY_PLACE = new HashMap<>();
+    // names in other languages, which clients send as often as the local ones, and the town in postcodes.csv
+    private static final Map<String, String> OTHER_NAMES = Map.ofEntries(
+            Map.entry("Geneva", "Geneve"),
+            Map.entry("Genf", "Geneve"),
+            Map.entry("Ginevra", "Geneve"),
+            Map.entry("Berne", "Bern"),
+            Map.entry("Basle", "Basel"),
+            Map.entry("Bale", "Basel"),
+            Map.entry("Lucerne", "Luzern"),
+            Map.entry("Lucerna", "Luzern"),
+            Map.entry("Neuenburg", "Neuchatel"),
+            Map.entry("Freiburg", "Fribourg"),
+            Map.entry("Sitten", "Sion"),
+            Map.entry("Biel", "Biel/Bienne"),
+            Map.entry("Bienne", "Biel/Bienne"),
+            Map.entry("Soleure", "Solothurn"),
+            Map.entry("Delsberg", "Delemont"),
+            Map.entry("Pruntrut", "Porrentruy"),
+            Map.entry("Thoune", "Thun"),
+            Map.entry("Coire", "Chur"),
+            Map.entry("Bellinzone", "Bellinzona"),
+            Map.entry("Schaffhouse", "Schaffhausen"),
+            Map.entry("Winterthour", "Winterthur"),
+            Map.entry("Saint-Gall", "St. Gallen"),
+            Map.entry("Sankt Gallen", "St. Gallen"),
+            Map.entry("Saint-Moritz", "St. Moritz"),
+            Map.entry("Yverdon", "Yverdon-les-Bains"),
+            Map.entry("Marseilles", "Marseille"),
+            Map.entry("Lyons", "Lyon"),
+            Map.entry("Nizza", "Nice"),
+            Map.entry("Strassburg", "Strasbourg"),
+            Map.entry("Mulhausen", "Mulhouse"));
+
+    static {
+        var in = Geocoder.class.getResourceAsStream("postcodes.csv");
+        if (in == null) {
+            throw new IllegalStateException("postcodes.csv is missing from the classpath!");
+        }
+        try (var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                var fields = line.split(",");
+                var point = new Point(Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+                BY_PREFIX.put(fields[0] + fields[1], point);
+                BY_PLACE.putIfAbsent(fold(fields[2]), point);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        OTHER_NAMES.forEach((name, town) -> {
+            var point = BY_PLACE.get(fold(town));
+            if (point == null) {
+                throw new IllegalStateException(town + " is missing from postcodes.csv!");
+            }
+            BY_PLACE.putIfAbsent(fold(name), point);
+        });
+    }
+
+    private Geocoder() {
+    }
+
+    // null when neither the postcode nor the city is known
+    static Point locate(Location location) {
+        if (location == null) {
+            return null;
+        }
+        var point = locate(location.getPostcode());
+        return point != null ? point : locate(location.getCity());
+    }
+
+    // A postcode ("1004", "CH-1004", "75011") or the name of a district town
+    static Point locate(String place) {
+        if (place == null || place.isBlank()) {
+            return null;
+        }
+        var digits = place.replaceAll("\\D", "");
+        if (digits.length() == 4) {
+            return BY_PREFIX.get("CH" + digits.substring(0, 2));
+        }
+        if (digits.length() == 5) {
+            return BY_PREFIX.get("FR" + digits.substring(0, 2));
+        }
+        return digits.isEmpty() ? BY_PLACE.get(fold(place)) : null;
+    }
+
+    // Great-circle distance in kilometres
+    static double distance(Point a, Point b) {
+        double latitude = Math.toRadians(b.latitude() - a.latitude());
+        double longitude = Math.toRadians(b.longitude() - a.longitude());
+        double h = Math.sin(latitude / 2) * Math.sin(latitude / 2)
+                + Math.cos(Math.toRadians(a.latitude())) * Math.cos(Math.toRadians(b.latitude()))
+                * Math.sin(longitude / 2) * Math.sin(longitude / 2);
+        return 2 * GeoIndex.EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    private static String fold(String place) {
+        return Normalizer.normalize(place.trim(), Normalizer.Form.NFD).replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,107 @@
+package ch.unil.furrybuddy.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Redo log of ApplicationState mutations. Records hold the full entity after the change, so replaying
+// a record twice is harmless; this is what lets snapshots be taken while writers keep going.
+// An upsert also says whether an adoption request is closed (accepted, rejected or cancelled), which the entity
+// itself does not record; it is false for every other type.
+interface Journal extends AutoCloseable {
+
+    String DIRECTORY_PROPERTY = "furrybuddy.wal.dir";
+    String SNAPSHOT_EVERY_PROPERTY = "furrybuddy.wal.snapshotEvery";
+
+    interface Sink {
+        void upsert(EntityType type, UUID id, Object entity, boolean closed);
+
+        // Copies an entity still untouched since the previous snapshot without decoding it
+        void copy(EntityType type, UUID id, ByteBuffer record);
+    }
+
+    interface Replayer {
+        void apply(EntityType type, UUID id, Object entity, boolean closed); // entity is null for a delete
+    }
+
+    // Records of a multi-entity change, appended together by commit
+    interface Batch {
+        void upsert(EntityType type, UUID id, Object entity, boolean closed);
+
+        void delete(EntityType type, UUID id);
+
+        // Returns once every record of the batch is durable on disk
+        void commit();
+    }
+
+    // Keeps everything in memory only, as before the journal existed
+    Journal NONE = new Journal() {
+        @Override
+        public void upsert(EntityType type, UUID id, Object entity, boolean closed) {
+        }
+
+        @Override
+        public void delete(EntityType type, UUID id) {
+        }
+
+        @Override
+        public Batch batch() {
+            return new Batch() {
+                @Override
+                public void upsert(EntityType type, UUID id, Object entity, boolean closed) {
+                }
+
+                @Override
+                public void delete(EntityType type, UUID id) {
+                }
+
+                @Override
+                public void commit() {
+                }
+            };
+        }
+
+        @Override
+        public boolean recover(Consumer<SnapshotFile> baseline, Replayer replayer) {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    // Throws when the journal refuses writes, so a change is checked before it is applied in memory
+    default void checkWritable() {
+    }
+
+    // Returns once the record is durable on disk
+    void upsert(EntityType type, UUID id, Object entity, boolean closed);
+
+    void delete(EntityType type, UUID id);
+
+    Batch batch();
+
+    // Hands the latest snapshot to baseline and replays the log tail; false when there was nothing to recover.
+    // Must be called once before the first write.
+    boolean recover(Consumer<SnapshotFile> baseline, Replayer replayer);
+
+    // Drops all snapshots and log segments
+    void reset();
+
+    @Override
+    void close();
+
+    static Journal open(Consumer<Sink> snapshotter) {
+        var directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || directory.isBlank()) {
+            return NONE;
+        }
+        return new WriteAheadLog(Path.of(directory), Long.getLong(SNAPSHOT_EVERY_PROPERTY, 100_000), snapshotter);
+    }
+}
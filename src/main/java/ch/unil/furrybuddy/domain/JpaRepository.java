@@ -0,0 +1,230 @@
+package ch.unil.furrybuddy.domain;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+// Repository on the FurryBuddyPU persistence unit (the server's embedded default data source).
+// Entities come back detached; ApplicationState keeps them in its maps and merges them back on every change.
+@ApplicationScoped
+public class JpaRepository implements Repository {
+
+    private static final int BATCH_SIZE = 500;
+
+    @PersistenceContext(unitName = "FurryBuddyPU")
+    private EntityManager em;
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public Object find(EntityType type, UUID id) {
+        // Fetch joins so that an advertisement or request comes back with the graph it is serialized with
+        return switch (type) {
+            case ADVERTISEMENT -> em.createQuery(
+                            "SELECT a FROM Advertisement a LEFT JOIN FETCH a.pet WHERE a.advertisementID = :id",
+                            Advertisement.class)
+                    .setParameter("id", id)
+                    .getResultList().stream().findFirst().orElse(null);
+            case ADOPTION_REQUEST -> em.createQuery(
+                            "SELECT r FROM AdoptionRequest r LEFT JOIN FETCH r.advertisement a LEFT JOIN FETCH a.pet"
+                                    + " WHERE r.requestID = :id",
+                            AdoptionRequest.class)
+                    .setParameter("id", id)
+                    .getResultList().stream().findFirst().orElse(null);
+            default -> em.find(type.entityClass(), id);
+        };
+    }
+
+    @Override
+    @Transactional
+    public void save(EntityType type, Object entity) {
+        em.merge(entity);
+    }
+
+    @Override
+    @Transactional
+    public void saveAll(Collection<?> entities) {
+        // the persistence unit turns on JDBC batch writing; flushing every BATCH_SIZE keeps the context small
+        int pending = 0;
+        for (var entity : entities) {
+            em.persist(entity);
+            if (++pending == BATCH_SIZE) {
+                em.flush();
+                em.clear();
+                pending = 0;
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    public boolean delete(EntityType type, UUID id) {
+        var entity = em.find(type.entityClass(), id);
+        if (entity == null) {
+            return false;
+        }
+        if (type == EntityType.ADOPTION_REQUEST) {
+            deleteClosed(id);
+        }
+        em.remove(entity);
+        return true;
+    }
+
+    @Override
+    public List<?> findAll(EntityType type) {
+        return em.createQuery(select(type, "") + " ORDER BY e." + idAttribute(type), type.entityClass())
+                .getResultList();
+    }
+
+    // Keyset paging: the index on the ID finds the cursor, so a page costs the same wherever it starts
+    @Override
+    public List<?> findPage(EntityType type, UUID cursor, int limit) {
+        var id = "e." + idAttribute(type);
+        var query = em.createQuery(select(type, cursor == null ? "" : " WHERE " + id + " > :cursor")
+                + " ORDER BY " + id, type.entityClass());
+        if (cursor != null) {
+            query.setParameter("cursor", cursor);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    // Fetch joins so that advertisements and requests come back with the graph they are serialized with
+    private static String select(EntityType type, String where) {
+        return switch (type) {
+            case ADVERTISEMENT -> "SELECT e FROM Advertisement e LEFT JOIN FETCH e.pet" + where;
+            case ADOPTION_REQUEST -> "SELECT e FROM AdoptionRequest e LEFT JOIN FETCH e.advertisement a"
+                    + " LEFT JOIN FETCH a.pet" + where;
+            default -> "SELECT e FROM " + entityName(type) + " e" + where;
+        };
+    }
+
+    @Override
+    public long count(EntityType type) {
+        return em.createQuery("SELECT COUNT(e) FROM " + entityName(type) + " e", Long.class).getSingleResult();
+    }
+
+    @Override
+    public UUID findUserID(String email) {
+        for (var entity : List.of("PetOwner", "Adopter")) {
+            var ids = em.createQuery("SELECT u.userID FROM " + entity + " u WHERE u.email = :email", UUID.class)
+                    .setParameter("email", email)
+                    .setMaxResults(1)
+                    .getResultList();
+            if (!ids.isEmpty()) {
+                return ids.get(0);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Advertisement> findAdvertisements(String species, String breed, String gender, int compatibility) {
+        Pet.Gender petGender = null;
+        if (gender != null && !gender.isEmpty()) {
+            try {
+                petGender = Pet.Gender.valueOf(gender.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return List.of(); // no pet has an unknown gender
+            }
+        }
+
+        var jpql = new StringBuilder("SELECT a FROM Advertisement a JOIN FETCH a.pet p WHERE 1 = 1");
+        if (species != null && !species.isEmpty()) {
+            jpql.append(" AND p.species = :species");
+        }
+        if (breed != null && !breed.isEmpty()) {
+            jpql.append(" AND p.breed = :breed");
+        }
+        if (petGender != null) {
+            jpql.append(" AND p.gender = :gender");
+        }
+        if ((compatibility & CompatibilityMatcher.KIDS) != 0) {
+            jpql.append(" AND p.compatibleWithKids = TRUE");
+        }
+        if ((compatibility & CompatibilityMatcher.OTHER_ANIMALS) != 0) {
+            jpql.append(" AND p.compatibleWithOtherAnimals = TRUE");
+        }
+        if ((compatibility & CompatibilityMatcher.INEXPERIENCED) != 0) {
+            jpql.append(" AND p.compatibleWithInexperiencedOwners = TRUE");
+        }
+        if ((compatibility & CompatibilityMatcher.FAMILY) != 0) {
+            jpql.append(" AND p.compatibleWithFamilies = TRUE");
+        }
+        jpql.append(" ORDER BY a.advertisementID");
+
+        var query = em.createQuery(jpql.toString(), Advertisement.class);
+        if (species != null && !species.isEmpty()) {
+            query.setParameter("species", species);
+        }
+        if (breed != null && !breed.isEmpty()) {
+            query.setParameter("breed", breed);
+        }
+        if (petGender != null) {
+            query.setParameter("gender", petGender);
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public List<UUID> findAdoptionRequestIDs(RequestLink link, UUID id) {
+        var path = switch (link) {
+            case ADVERTISEMENT -> "r.advertisement.advertisementID";
+            case ADOPTER -> "r.adopter.userID";
+            case PET_OWNER -> "r.advertisement.petOwner.userID";
+        };
+        return em.createQuery("SELECT r.requestID FROM AdoptionRequest r WHERE " + path + " = :id ORDER BY r.requestID",
+                        UUID.class)
+                .setParameter("id", id)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional
+    public void saveClosed(UUID adoptionRequestID) {
+        em.merge(new ClosedAdoptionRequest(adoptionRequestID));
+    }
+
+    @Override
+    public List<UUID> findClosedAdoptionRequestIDs() {
+        return em.createQuery("SELECT c.requestID FROM ClosedAdoptionRequest c", UUID.class).getResultList();
+    }
+
+    private void deleteClosed(UUID adoptionRequestID) {
+        em.createQuery("DELETE FROM ClosedAdoptionRequest c WHERE c.requestID = :id")
+                .setParameter("id", adoptionRequestID)
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll() {
+        em.createQuery("DELETE FROM ClosedAdoptionRequest c").executeUpdate();
+        // children first
+        for (var type : List.of(EntityType.ADOPTION_REQUEST, EntityType.ADVERTISEMENT, EntityType.PET,
+                EntityType.PET_OWNER, EntityType.ADOPTER)) {
+            em.createQuery("DELETE FROM " + entityName(type) + " e").executeUpdate();
+        }
+    }
+
+    private static String entityName(EntityType type) {
+        return type.entityClass().getSimpleName();
+    }
+
+    private static String idAttribute(EntityType type) {
+        return switch (type) {
+            case PET -> "petID";
+            case PET_OWNER, ADOPTER -> "userID";
+            case ADVERTISEMENT -> "advertisementID";
+            case ADOPTION_REQUEST -> "requestID";
+        };
+    }
+}
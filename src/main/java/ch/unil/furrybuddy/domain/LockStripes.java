@@ -0,0 +1,52 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Fixed pool of locks shared by hashing the key, so writers on different entities rarely contend
+final class LockStripes {
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    LockStripes(int minStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    ReentrantLock lockFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[hash & mask];
+    }
+
+    <T> T withLock(Object key, Supplier<T> action) {
+        var lock = lockFor(key);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes every stripe in index order. Single-entity writers never hold two stripes at once, so this cannot
+    // deadlock with them, and two callers of this method queue up on stripe 0.
+    <T> T withAllLocks(Supplier<T> action) {
+        int locked = 0;
+        try {
+            for (; locked < locks.length; locked++) {
+                locks[locked].lock();
+            }
+            return action.get();
+        } finally {
+            while (locked > 0) {
+                locks[--locked].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ch.unil.furrybuddy.domain;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Salted PBKDF2 password hashes, stored in the user's password field as
+// "pbkdf2-sha256$<iterations>$<salt>$<hash>" (Base64), so the JSON, the journal and the database never see
+// the plaintext. The iteration count travels with each hash and can be raised without invalidating old ones.
+public final class Passwords {
+
+    public static final String ITERATIONS_PROPERTY = "furrybuddy.auth.iterations";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int DEFAULT_ITERATIONS = 310_000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // compared against when the user does not exist, so that case costs as much as a wrong password
+    private static final String DUMMY = hash("not a password");
+
+    private Passwords() {
+    }
+
+    public static boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    // A hash sent by a client is only stored when it is well formed and has at most the server's iteration count:
+    // every login with it runs PBKDF2 that many times on the hashing pool
+    public static boolean isAcceptableHash(String stored) {
+        if (!isHashed(stored)) {
+            return false;
+        }
+        var parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            var decoder = Base64.getDecoder();
+            return iterations > 0 && iterations <= iterations() && decoder.decode(parts[2]).length > 0
+                    && decoder.decode(parts[3]).length == HASH_BITS / 8;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public static int iterations() {
+        return Integer.getInteger(ITERATIONS_PROPERTY, DEFAULT_ITERATIONS);
+    }
+
+    public static String hash(String password) {
+        var salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        int iterations = iterations();
+        var encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    // Constant-time in the content of both strings. Plaintext passwords written before hashing existed
+    // (older journals and databases) are still accepted.
+    public static boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        var parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        var decoder = Base64.getDecoder();
+        var expected = decoder.decode(parts[3]);
+        return MessageDigest.isEqual(pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1])), expected);
+    }
+
+    // Same cost as verify for an unknown user
+    static void verifyDummy(String password) {
+        verify(password == null ? "" : password, DUMMY);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        var spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available!", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
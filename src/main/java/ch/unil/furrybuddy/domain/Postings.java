@@ -0,0 +1,36 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Posting lists of the indexes: the IDs under each key, a key being dropped with its last ID. A null key is not
+// indexed.
+final class Postings {
+
+    private Postings() {
+    }
+
+    static <K> void add(Map<K, Set<UUID>> postings, K key, UUID id) {
+        if (key != null) {
+            // add inside compute so it cannot race with remove() dropping an emptied list
+            postings.compute(key, (k, ids) -> {
+                if (ids == null) {
+                    ids = ConcurrentHashMap.newKeySet();
+                }
+                ids.add(id);
+                return ids;
+            });
+        }
+    }
+
+    static <K> void remove(Map<K, Set<UUID>> postings, K key, UUID id) {
+        if (key != null) {
+            postings.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.UUID;
+
+// Reads from the other instances of a sharded service (see ShardRing), for the workflow steps that need an entity
+// living on another shard. Implemented by the REST layer, which knows how to reach them.
+public interface RemoteShards {
+
+    // The entity from its owning shard, or null when it does not exist there
+    Object find(EntityType type, UUID id);
+}
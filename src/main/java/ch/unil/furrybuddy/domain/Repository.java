@@ -0,0 +1,121 @@
+package ch.unil.furrybuddy.domain;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+// Storage behind the ApplicationState maps. With a real repository the maps only hold the entities in use:
+// misses are read through and every mutation is written through.
+public interface Repository {
+
+    String STORAGE_PROPERTY = "furrybuddy.storage";
+    String MEMORY = "memory";
+    String JPA = "jpa";
+
+    // What an adoption request can be looked up by
+    enum RequestLink { ADVERTISEMENT, ADOPTER, PET_OWNER }
+
+    // Everything lives in the ApplicationState maps, as in the default in-memory mode
+    Repository NONE = new Repository() {
+        @Override
+        public boolean isPersistent() {
+            return false;
+        }
+
+        @Override
+        public Object find(EntityType type, UUID id) {
+            return null;
+        }
+
+        @Override
+        public void save(EntityType type, Object entity) {
+        }
+
+        @Override
+        public void saveAll(Collection<?> entities) {
+        }
+
+        @Override
+        public boolean delete(EntityType type, UUID id) {
+            return false;
+        }
+
+        @Override
+        public List<?> findAll(EntityType type) {
+            return List.of();
+        }
+
+        @Override
+        public List<?> findPage(EntityType type, UUID cursor, int limit) {
+            return List.of();
+        }
+
+        @Override
+        public long count(EntityType type) {
+            return 0;
+        }
+
+        @Override
+        public UUID findUserID(String email) {
+            return null;
+        }
+
+        @Override
+        public List<Advertisement> findAdvertisements(String species, String breed, String gender, int compatibility) {
+            return List.of();
+        }
+
+        @Override
+        public List<UUID> findAdoptionRequestIDs(RequestLink link, UUID id) {
+            return List.of();
+        }
+
+        @Override
+        public void saveClosed(UUID adoptionRequestID) {
+        }
+
+        @Override
+        public List<UUID> findClosedAdoptionRequestIDs() {
+            return List.of();
+        }
+
+        @Override
+        public void deleteAll() {
+        }
+    };
+
+    boolean isPersistent();
+
+    Object find(EntityType type, UUID id);
+
+    // Inserts or updates
+    void save(EntityType type, Object entity);
+
+    // Inserts new entities in batches
+    void saveAll(Collection<?> entities);
+
+    // false when there was nothing to delete
+    boolean delete(EntityType type, UUID id);
+
+    List<?> findAll(EntityType type);
+
+    // The first limit entities with an ID after cursor (from the start when it is null), in ID order
+    List<?> findPage(EntityType type, UUID cursor, int limit);
+
+    long count(EntityType type);
+
+    UUID findUserID(String email);
+
+    // Same semantics as ApplicationState.filterAdvertisements, compatibility as a CompatibilityMatcher mask
+    List<Advertisement> findAdvertisements(String species, String breed, String gender, int compatibility);
+
+    // IDs of the requests on an advertisement, by an adopter or on a pet owner's advertisements, in UUID order
+    List<UUID> findAdoptionRequestIDs(RequestLink link, UUID id);
+
+    // Marks a request as accepted, rejected or cancelled, which the entity does not record; delete forgets it
+    void saveClosed(UUID adoptionRequestID);
+
+    List<UUID> findClosedAdoptionRequestIDs();
+
+    void deleteAll();
+}
@@ -0,0 +1,137 @@
+package ch.unil.furrybuddy.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// Which instance owns an ID when the data is split over several: -Dfurrybuddy.shards lists the base URLs of all
+// of them (the same list, in the same order, everywhere) and -Dfurrybuddy.shard.self names this one.
+// Consistent hashing: every shard takes VIRTUAL_NODES points on a ring of longs and an ID belongs to the first point
+// at or after its hash, so each shard gets about the same share and adding one to the list only moves the IDs that
+// now fall to it. The ring is fixed for the life of the process; data is not moved when the list changes.
+public final class ShardRing {
+
+    public static final String SHARDS_PROPERTY = "furrybuddy.shards";
+    public static final String SELF_PROPERTY = "furrybuddy.shard.self";
+    // the session token key, which also signs the calls between shards
+    public static final String KEY_PROPERTY = "furrybuddy.auth.key";
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final List<String> shards;
+    private final int self;
+    // sorted points and the index of the shard owning each
+    private final long[] points;
+    private final int[] owners;
+
+    public ShardRing(List<String> shards, String self) {
+        this.shards = List.copyOf(shards.stream().map(ShardRing::normalize).distinct().toList());
+        if (this.shards.isEmpty()) {
+            throw new IllegalArgumentException("A shard ring needs at least one shard!");
+        }
+        this.self = this.shards.indexOf(normalize(self));
+        if (this.self < 0) {
+            throw new IllegalArgumentException(SELF_PROPERTY + " must be one of " + SHARDS_PROPERTY + "!");
+        }
+        record Point(long position, int owner) {
+        }
+        var all = new ArrayList<Point>(this.shards.size() * VIRTUAL_NODES);
+        for (int shard = 0; shard < this.shards.size(); shard++) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                all.add(new Point(position(this.shards.get(shard) + "#" + i), shard));
+            }
+        }
+        all.sort((a, b) -> Long.compare(a.position(), b.position()));
+        points = all.stream().mapToLong(Point::position).toArray();
+        owners = all.stream().mapToInt(Point::owner).toArray();
+    }
+
+    // The ring of the system properties, or null when the service runs alone
+    public static ShardRing configured() {
+        var shards = System.getProperty(SHARDS_PROPERTY);
+        if (shards == null || shards.isBlank()) {
+            return null;
+        }
+        var self = System.getProperty(SELF_PROPERTY);
+        if (self == null || self.isBlank()) {
+            throw new IllegalArgumentException(SELF_PROPERTY + " must be set along with " + SHARDS_PROPERTY + "!");
+        }
+        var ring = new ShardRing(Arrays.asList(shards.split(",")), self);
+        if (ring.shards.size() == 1) {
+            return null;
+        }
+        var key = System.getProperty(KEY_PROPERTY);
+        if (key == null || key.isBlank()) {
+            // a key made up by each shard would fail every forwarded call
+            throw new IllegalArgumentException("Every shard needs the same " + KEY_PROPERTY + "!");
+        }
+        return ring;
+    }
+
+    public List<String> shards() {
+        return shards;
+    }
+
+    public String self() {
+        return shards.get(self);
+    }
+
+    // The base URL of the shard that owns id
+    public String ownerOf(UUID id) {
+        return shards.get(owner(id));
+    }
+
+    public boolean isLocal(UUID id) {
+        return owner(id) == self;
+    }
+
+    // A random ID owned by this shard: about as many draws as there are shards
+    public UUID newID() {
+        while (true) {
+            var id = UUID.randomUUID();
+            if (isLocal(id)) {
+                return id;
+            }
+        }
+    }
+
+    int owner(UUID id) {
+        long hash = mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits()));
+        int at = Arrays.binarySearch(points, hash);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        return owners[at == points.length ? 0 : at];
+    }
+
+    private static String normalize(String url) {
+        var trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    private static long position(String point) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(point.getBytes(StandardCharsets.UTF_8));
+            long position = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                position = position << 8 | (digest[i] & 0xFF);
+            }
+            return position;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // MurmurHash3's finalizer: random UUIDs are random already, but imported IDs need not be
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb3fe1a85ec53L;
+        return value ^ value >>> 33;
+    }
+}
@@ -0,0 +1,375 @@
+package ch.unil.furrybuddy.domain;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Versioned binary snapshot of ApplicationState, read through memory mappings.
+//
+//   header  : int MAGIC | int VERSION | long created (epoch millis)
+//   records : per entity, short attributesLength | attributes | json; no record crosses a CHUNK boundary
+//   indexes : per entity type, count * (long msb | long lsb | long offset | int length), sorted by UUID
+//   footer  : per entity type, long indexOffset | int count ; then int MAGIC
+//
+// The indexes are searched in place, so a snapshot is usable as soon as it is mapped; the JSON of an entity
+// is only decoded when materialize() is called for it. Advertisements carry the attributes AdvertisementIndex
+// needs, so the filter index can be rebuilt without decoding any advertisement. A closed adoption request carries
+// the single attribute byte CLOSED; a pending one has none.
+final class SnapshotFile implements AutoCloseable {
+
+    static final int MAGIC = 0x46425350; // "FBSP"
+    static final int VERSION = 1;
+
+    private static final byte CLOSED = 1;
+
+    private static final int HEADER = Integer.BYTES * 2 + Long.BYTES;
+    private static final int ENTRY = Long.BYTES * 3 + Integer.BYTES;
+    private static final int FOOTER_ENTRY = Long.BYTES + Integer.BYTES;
+    private static final int FOOTER = FOOTER_ENTRY * EntityType.values().length + Integer.BYTES;
+    private static final long CHUNK = 1L << 30;
+
+    interface AdvertisementVisitor {
+        void visit(UUID advertisementID, UUID petID, String species, String breed, String gender, int compatibility);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final MappedByteBuffer[] indexes;
+    private final int[] counts;
+    private final AtomicLongArray[] retired;
+    private final Jsonb jsonb = JsonbBuilder.create();
+
+    private SnapshotFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        if (size < HEADER + FOOTER) {
+            throw new IOException("Snapshot is truncated");
+        }
+        var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a snapshot file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        var footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER, FOOTER);
+        if (footer.getInt(FOOTER - Integer.BYTES) != MAGIC) {
+            throw new IOException("Snapshot footer is missing");
+        }
+
+        var types = EntityType.values();
+        counts = new int[types.length];
+        indexes = new MappedByteBuffer[types.length];
+        retired = new AtomicLongArray[types.length];
+        long recordsEnd = -1;
+        for (var type : types) {
+            long indexOffset = footer.getLong();
+            int count = footer.getInt();
+            counts[type.ordinal()] = count;
+            indexes[type.ordinal()] = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * ENTRY);
+            retired[type.ordinal()] = new AtomicLongArray((count + 63) / 64);
+            if (recordsEnd < 0) {
+                // the indexes are written right after the last record
+                recordsEnd = indexOffset;
+            }
+        }
+
+        chunks = new MappedByteBuffer[(int) ((recordsEnd + CHUNK - 1) / CHUNK)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = i * CHUNK;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, recordsEnd - start));
+        }
+    }
+
+    static SnapshotFile open(Path file) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new SnapshotFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int count(EntityType type) {
+        return counts[type.ordinal()];
+    }
+
+    UUID id(EntityType type, int position) {
+        var index = indexes[type.ordinal()];
+        int at = position * ENTRY;
+        return new UUID(index.getLong(at), index.getLong(at + Long.BYTES));
+    }
+
+    // Binary search over the mapped index; negative when the snapshot does not hold the entity
+    int find(EntityType type, UUID id) {
+        var index = indexes[type.ordinal()];
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int low = 0;
+        int high = counts[type.ordinal()] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int at = middle * ENTRY;
+            // same ordering as UUID.compareTo
+            int order = Long.compare(index.getLong(at), msb);
+            if (order == 0) {
+                order = Long.compare(index.getLong(at + Long.BYTES), lsb);
+            }
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    Object materialize(EntityType type, int position) {
+        var record = record(type, position);
+        record.position(Short.BYTES + Short.toUnsignedInt(record.getShort(0)));
+        var json = new byte[record.remaining()];
+        record.get(json);
+        return jsonb.fromJson(new String(json, StandardCharsets.UTF_8), type.entityClass());
+    }
+
+    // Raw record bytes, for copying untouched entities into the next snapshot
+    ByteBuffer record(EntityType type, int position) {
+        var index = indexes[type.ordinal()];
+        int at = position * ENTRY;
+        long offset = index.getLong(at + Long.BYTES * 2);
+        int length = index.getInt(at + Long.BYTES * 3);
+        var chunk = chunks[(int) (offset / CHUNK)];
+        return chunk.slice((int) (offset % CHUNK), length);
+    }
+
+    void forEachAdvertisement(AdvertisementVisitor visitor) {
+        for (int position = 0; position < count(EntityType.ADVERTISEMENT); position++) {
+            var record = record(EntityType.ADVERTISEMENT, position);
+            int attributesLength = Short.toUnsignedInt(record.getShort());
+            if (attributesLength == 0) {
+                visitor.visit(id(EntityType.ADVERTISEMENT, position), null, null, null, null, CompatibilityMatcher.NONE);
+                continue;
+            }
+            UUID petID = record.get() == 1 ? new UUID(record.getLong(), record.getLong()) : null;
+            int compatibility = record.get();
+            var species = readString(record);
+            var breed = readString(record);
+            var gender = readString(record);
+            visitor.visit(id(EntityType.ADVERTISEMENT, position), petID, species, breed, gender, compatibility);
+        }
+    }
+
+    boolean isClosed(int adoptionRequestPosition) {
+        var record = record(EntityType.ADOPTION_REQUEST, adoptionRequestPosition);
+        return record.getShort(0) > 0 && record.get(Short.BYTES) == CLOSED;
+    }
+
+    // An entity is retired once it has been materialized or removed, after which the live maps own it
+    boolean isRetired(EntityType type, int position) {
+        return (retired[type.ordinal()].get(position >>> 6) & (1L << position)) != 0;
+    }
+
+    // Returns false when the entity was already retired
+    boolean retire(EntityType type, int position) {
+        var bits = retired[type.ordinal()];
+        long mask = 1L << position;
+        int word = position >>> 6;
+        while (true) {
+            long current = bits.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            jsonb.close();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not close snapshot!", e);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // WRITING
+    static Writer writer(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    // Entities of one type must be added in UUID order (the order of the ApplicationState maps)
+    static final class Writer implements Journal.Sink, AutoCloseable {
+
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream[] indexBytes;
+        private final DataOutputStream[] indexOut;
+        private final int[] counts;
+        private final UUID[] last;
+        private final Jsonb jsonb = JsonbBuilder.create();
+        private long position;
+
+        private Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            int types = EntityType.values().length;
+            indexBytes = new ByteArrayOutputStream[types];
+            indexOut = new DataOutputStream[types];
+            for (int i = 0; i < types; i++) {
+                indexBytes[i] = new ByteArrayOutputStream();
+                indexOut[i] = new DataOutputStream(indexBytes[i]);
+            }
+            counts = new int[types];
+            last = new UUID[types];
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            position = HEADER;
+        }
+
+        @Override
+        public void upsert(EntityType type, UUID id, Object entity, boolean closed) {
+            var attributes = type == EntityType.ADVERTISEMENT ? attributesOf((Advertisement) entity)
+                    : closed ? new byte[]{CLOSED} : new byte[0];
+            var json = jsonb.toJson(entity).getBytes(StandardCharsets.UTF_8);
+            var record = ByteBuffer.allocate(Short.BYTES + attributes.length + json.length)
+                    .putShort((short) attributes.length)
+                    .put(attributes)
+                    .put(json);
+            write(type, id, record.array(), 0, record.capacity());
+        }
+
+        @Override
+        public void copy(EntityType type, UUID id, ByteBuffer record) {
+            var bytes = new byte[record.remaining()];
+            record.duplicate().get(bytes);
+            write(type, id, bytes, 0, bytes.length);
+        }
+
+        private void write(EntityType type, UUID id, byte[] record, int offset, int length) {
+            int t = type.ordinal();
+            if (last[t] != null && last[t].compareTo(id) >= 0) {
+                throw new IllegalStateException("Snapshot entries must be added in UUID order!");
+            }
+            if (length >= CHUNK) {
+                throw new IllegalArgumentException("Entity " + id + " is too large for a snapshot!");
+            }
+            try {
+                // keep every record inside one mapping chunk
+                long room = CHUNK - position % CHUNK;
+                if (length > room) {
+                    var padding = new byte[8192];
+                    for (long left = room; left > 0; left -= padding.length) {
+                        out.write(padding, 0, (int) Math.min(left, padding.length));
+                    }
+                    position += room;
+                }
+                out.write(record, offset, length);
+                indexOut[t].writeLong(id.getMostSignificantBits());
+                indexOut[t].writeLong(id.getLeastSignificantBits());
+                indexOut[t].writeLong(position);
+                indexOut[t].writeInt(length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position += length;
+            counts[t]++;
+            last[t] = id;
+        }
+
+        // Writes the indexes and footer and forces the file to disk
+        void finish() throws IOException {
+            var offsets = new long[counts.length];
+            for (int t = 0; t < counts.length; t++) {
+                offsets[t] = position;
+                indexBytes[t].writeTo(out);
+                position += indexBytes[t].size();
+            }
+            for (int t = 0; t < counts.length; t++) {
+                out.writeLong(offsets[t]);
+                out.writeInt(counts[t]);
+            }
+            out.writeInt(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            try {
+                jsonb.close();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        private static byte[] attributesOf(Advertisement advertisement) {
+            var pet = advertisement.getPet();
+            if (pet == null) {
+                return new byte[0];
+            }
+            try {
+                var bytes = new ByteArrayOutputStream(64);
+                var attributes = new DataOutputStream(bytes);
+                if (pet.getPetID() != null) {
+                    attributes.writeByte(1);
+                    attributes.writeLong(pet.getPetID().getMostSignificantBits());
+                    attributes.writeLong(pet.getPetID().getLeastSignificantBits());
+                } else {
+                    attributes.writeByte(0);
+                }
+                attributes.writeByte(CompatibilityMatcher.maskOf(pet));
+                writeString(attributes, pet.getSpecies());
+                writeString(attributes, pet.getBreed());
+                writeString(attributes, pet.getGender() == null ? null : pet.getGender().name());
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static void writeString(DataOutputStream attributes, String value) throws IOException {
+            if (value == null) {
+                attributes.writeShort(-1);
+                return;
+            }
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            attributes.writeShort(bytes.length);
+            attributes.write(bytes);
+        }
+    }
+}
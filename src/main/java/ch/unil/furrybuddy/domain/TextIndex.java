@@ -0,0 +1,414 @@
+package ch.unil.furrybuddy.domain;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+// Full-text index over the pet of each advertisement (name, species, breed, description, health notes),
+// ranked with BM25. Terms are lowercased and accent-folded, so accented and plain spellings match each other.
+// Every (re)index gets a fresh, increasing document number and appends to the posting lists, which therefore
+// stay sorted and can be merged document-at-a-time. Replaced and removed documents are only marked dead and
+// dropped from a list once they make up half of it. Readers take no lock: a list publishes an immutable slice.
+// Callers must serialize index/unindex for the same advertisement (ApplicationState uses its lock stripes).
+final class TextIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int BLOCK_SHIFT = 7;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final class Document {
+        final int number;
+        final UUID advertisementID;
+        final int length;
+        final Postings[] terms;
+        volatile boolean live = true;
+
+        Document(int number, UUID advertisementID, int length, Postings[] terms) {
+            this.number = number;
+            this.advertisementID = advertisementID;
+            this.length = length;
+            this.terms = terms;
+        }
+    }
+
+    // Entries below size never change in a published slice; appending writes past it. Each block of
+    // BLOCK_SIZE entries keeps its highest frequency and shortest document, which bound the score of its entries;
+    // appending only ever loosens the bound of the last block.
+    private record Slice(Document[] documents, int[] numbers, int[] frequencies, int[] lengths,
+                         int[] blockFrequencies, int[] blockLengths, int size) {
+
+        static Slice empty() {
+            return new Slice(new Document[2], new int[2], new int[2], new int[2], new int[1], new int[1], 0);
+        }
+    }
+
+    private static final class Postings {
+        final String term;
+        volatile Slice slice = Slice.empty();
+        int dead; // guarded by the write lock
+
+        Postings(String term) {
+            this.term = term;
+        }
+    }
+
+    private record Hit(Document document, float score) {
+    }
+
+    private final Map<String, Postings> terms = new ConcurrentHashMap<>();
+    private final Map<UUID, Document> documents = new ConcurrentHashMap<>();
+    // writers append under it so document numbers reach every list in increasing order
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private int nextNumber;
+    private volatile long liveDocuments;
+    private volatile long totalLength;
+
+    void clear() {
+        writeLock.lock();
+        try {
+            terms.clear();
+            documents.clear();
+            liveDocuments = 0;
+            totalLength = 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void index(Advertisement advertisement) {
+        index(advertisement.getAdvertisementID(), advertisement.getPet());
+    }
+
+    void index(UUID advertisementID, Pet pet) {
+        // analysis happens before taking the lock
+        var frequencies = new HashMap<String, Integer>();
+        Consumer<String> count = term -> frequencies.merge(term, 1, Integer::sum);
+        if (pet != null) {
+            analyze(pet.getName(), count);
+            analyze(pet.getSpecies(), count);
+            analyze(pet.getBreed(), count);
+            analyze(pet.getDescription(), count);
+            analyze(pet.getHealthNotes(), count);
+        }
+        int length = 0;
+        for (int frequency : frequencies.values()) {
+            length += frequency;
+        }
+
+        writeLock.lock();
+        try {
+            var postings = new Postings[frequencies.size()];
+            var document = new Document(nextNumber++, advertisementID, length, postings);
+            int i = 0;
+            for (var term : frequencies.entrySet()) {
+                postings[i] = terms.computeIfAbsent(term.getKey(), Postings::new);
+                append(postings[i], document, term.getValue());
+                i++;
+            }
+            var previous = documents.put(advertisementID, document);
+            if (previous != null) {
+                kill(previous);
+            }
+            liveDocuments++;
+            totalLength += length;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void unindex(UUID advertisementID) {
+        writeLock.lock();
+        try {
+            var previous = documents.remove(advertisementID);
+            if (previous != null) {
+                kill(previous);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // The best matches for any of the query terms, best first; an empty query matches nothing
+    List<UUID> search(String query, int limit) {
+        var queryTerms = new LinkedHashSet<String>();
+        analyze(query, queryTerms::add);
+        long documentCount = liveDocuments;
+        if (queryTerms.isEmpty() || documentCount == 0 || limit <= 0) {
+            return List.of();
+        }
+        float averageLength = Math.max(1f, (float) totalLength / documentCount);
+
+        var slices = new Slice[queryTerms.size()];
+        var weights = new float[slices.length];
+        int found = 0;
+        for (var term : queryTerms) {
+            var postings = terms.get(term);
+            if (postings == null) {
+                continue;
+            }
+            var slice = postings.slice;
+            // dead is only a hint here; an off-by-a-few document frequency does not change the ranking
+            long frequency = Math.max(1, slice.size() - postings.dead);
+            slices[found] = slice;
+            weights[found] = (float) Math.log(1 + (documentCount - frequency + 0.5) / (frequency + 0.5));
+            found++;
+        }
+        if (found == 0) {
+            return List.of();
+        }
+
+        // Document-at-a-time merge of the sorted lists into a bounded min-heap, pruned with MaxScore: lists are
+        // ordered by the best score they can contribute, and once the heap is full the weakest lists whose bounds
+        // together cannot beat its weakest hit stop producing candidates; they are only probed for the others'.
+        // Blocks of the remaining lists whose bound cannot beat it either are skipped whole.
+        var bounds = new float[found];
+        for (int i = 0; i < found; i++) {
+            for (int block = 0; block << BLOCK_SHIFT < slices[i].size(); block++) {
+                bounds[i] = Math.max(bounds[i], bound(weights[i], slices[i], block, averageLength));
+            }
+        }
+        for (int i = 1; i < found; i++) {
+            for (int j = i; j > 0 && bounds[j - 1] > bounds[j]; j--) {
+                swap(slices, j - 1, j);
+                swap(weights, j - 1, j);
+                swap(bounds, j - 1, j);
+            }
+        }
+        var best = new PriorityQueue<Hit>(limit + 1, (a, b) -> Float.compare(a.score(), b.score()));
+        var cursors = new int[found];
+        var blocks = new int[found];
+        var blockBounds = new float[found];
+        Arrays.fill(blocks, -1);
+        var prefixBounds = new float[found + 1];
+        int essential = 0;
+        boolean changed = true;
+        while (true) {
+            float threshold = best.size() == limit ? best.peek().score() : Float.NEGATIVE_INFINITY;
+            if (changed) {
+                for (int i = 0; i < found; i++) {
+                    prefixBounds[i + 1] = prefixBounds[i] + bounds[i];
+                }
+                while (essential < found && prefixBounds[essential + 1] <= threshold) {
+                    essential++;
+                }
+                changed = false;
+            }
+            int next = Integer.MAX_VALUE;
+            for (int i = essential; i < found; i++) {
+                var slice = slices[i];
+                float others = prefixBounds[found] - bounds[i];
+                while (cursors[i] < slice.size()) {
+                    int block = cursors[i] >> BLOCK_SHIFT;
+                    if (block != blocks[i]) {
+                        blocks[i] = block;
+                        blockBounds[i] = bound(weights[i], slice, block, averageLength);
+                    }
+                    if (blockBounds[i] + others > threshold) {
+                        break;
+                    }
+                    cursors[i] = (block + 1) << BLOCK_SHIFT;
+                }
+                if (cursors[i] < slice.size()) {
+                    next = Math.min(next, slice.numbers()[cursors[i]]);
+                } else if (bounds[i] > 0) {
+                    bounds[i] = 0;
+                    changed = true;
+                }
+            }
+            if (next == Integer.MAX_VALUE) {
+                break;
+            }
+            // the documents themselves are only touched for hits, the slices carry what scoring needs
+            Document document = null;
+            float score = 0;
+            for (int i = essential; i < found; i++) {
+                var slice = slices[i];
+                if (cursors[i] < slice.size() && slice.numbers()[cursors[i]] == next) {
+                    if (document == null) {
+                        document = slice.documents()[cursors[i]];
+                    }
+                    score += score(weights[i], slice.frequencies()[cursors[i]], slice.lengths()[cursors[i]], averageLength);
+                    cursors[i]++;
+                }
+            }
+            for (int i = essential - 1; i >= 0 && score + prefixBounds[i + 1] > threshold; i--) {
+                var slice = slices[i];
+                cursors[i] = seek(slice, cursors[i], next);
+                if (cursors[i] == slice.size()) {
+                    if (bounds[i] > 0) {
+                        bounds[i] = 0;
+                        changed = true;
+                    }
+                } else if (slice.numbers()[cursors[i]] == next) {
+                    score += score(weights[i], slice.frequencies()[cursors[i]], slice.lengths()[cursors[i]], averageLength);
+                    cursors[i]++;
+                }
+            }
+            if (score > threshold && document.live) {
+                best.add(new Hit(document, score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+                changed = true;
+            }
+        }
+
+        var hits = new ArrayList<>(best);
+        hits.sort((a, b) -> a.score() != b.score()
+                ? Float.compare(b.score(), a.score())
+                : a.document().advertisementID.compareTo(b.document().advertisementID));
+        var result = new ArrayList<UUID>(hits.size());
+        for (var hit : hits) {
+            result.add(hit.document().advertisementID);
+        }
+        return result;
+    }
+
+    // Lowercased, accent-folded runs of letters and digits
+    static void analyze(String text, Consumer<String> terms) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        var folded = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        folded = folded.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                terms.accept(folded.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    private static float score(float weight, int frequency, int length, float averageLength) {
+        float norm = K1 * (1 - B + B * length / averageLength);
+        return weight * frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    // The first entry at or after from whose number is at least target, galloping then bisecting
+    private static int seek(Slice slice, int from, int target) {
+        var numbers = slice.numbers();
+        int low = from;
+        int step = 1;
+        int high = from;
+        while (high < slice.size() && numbers[high] < target) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, slice.size());
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (numbers[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static void swap(Object[] values, int i, int j) {
+        var value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    private static void swap(float[] values, int i, int j) {
+        var value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    private static float bound(float weight, Slice slice, int block, float averageLength) {
+        return score(weight, slice.blockFrequencies()[block], slice.blockLengths()[block], averageLength);
+    }
+
+    // Caller holds the write lock
+    private void append(Postings postings, Document document, int frequency) {
+        var slice = postings.slice;
+        postings.slice = add(slice, slice.size() == slice.documents().length ? grow(slice, slice.size() * 2) : slice,
+                document, frequency);
+    }
+
+    private static Slice grow(Slice slice, int capacity) {
+        int blocks = (capacity >> BLOCK_SHIFT) + 1;
+        return new Slice(Arrays.copyOf(slice.documents(), capacity), Arrays.copyOf(slice.numbers(), capacity),
+                Arrays.copyOf(slice.frequencies(), capacity), Arrays.copyOf(slice.lengths(), capacity),
+                Arrays.copyOf(slice.blockFrequencies(), blocks),
+                Arrays.copyOf(slice.blockLengths(), blocks), slice.size());
+    }
+
+    // Writes entry size of the arrays in place and returns a slice one larger
+    private static Slice add(Slice previous, Slice arrays, Document document, int frequency) {
+        int size = previous.size();
+        arrays.documents()[size] = document;
+        arrays.numbers()[size] = document.number;
+        arrays.frequencies()[size] = frequency;
+        arrays.lengths()[size] = document.length;
+        int block = size >> BLOCK_SHIFT;
+        if ((size & ((1 << BLOCK_SHIFT) - 1)) == 0) {
+            arrays.blockFrequencies()[block] = frequency;
+            arrays.blockLengths()[block] = document.length;
+        } else {
+            arrays.blockFrequencies()[block] = Math.max(arrays.blockFrequencies()[block], frequency);
+            arrays.blockLengths()[block] = Math.min(arrays.blockLengths()[block], document.length);
+        }
+        return new Slice(arrays.documents(), arrays.numbers(), arrays.frequencies(), arrays.lengths(),
+                arrays.blockFrequencies(), arrays.blockLengths(), size + 1);
+    }
+
+    // Caller holds the write lock
+    private void kill(Document document) {
+        document.live = false;
+        liveDocuments--;
+        totalLength -= document.length;
+        for (var postings : document.terms) {
+            postings.dead++;
+            var slice = postings.slice;
+            if (postings.dead * 2 >= slice.size()) {
+                compact(postings, slice);
+            }
+        }
+    }
+
+    // New arrays, so readers still walking the old slice are not disturbed
+    private void compact(Postings postings, Slice slice) {
+        int live = slice.size() - postings.dead;
+        if (live <= 0) {
+            terms.remove(postings.term, postings);
+            postings.slice = Slice.empty();
+            postings.dead = 0;
+            return;
+        }
+        var compacted = grow(Slice.empty(), Math.max(2, live));
+        for (int i = 0; i < slice.size(); i++) {
+            if (slice.documents()[i].live) {
+                compacted = add(compacted, compacted, slice.documents()[i], slice.frequencies()[i]);
+            }
+        }
+        postings.slice = compacted;
+        postings.dead = 0;
+    }
+}
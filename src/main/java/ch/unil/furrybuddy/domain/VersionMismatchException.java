@@ -0,0 +1,9 @@
+package ch.unil.furrybuddy.domain;
+
+// Thrown by an update whose expected version no longer holds: the entity was changed in the meantime
+public class VersionMismatchException extends RuntimeException {
+
+    public VersionMismatchException(String message) {
+        super(message);
+    }
+}
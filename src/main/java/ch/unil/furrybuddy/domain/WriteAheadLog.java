@@ -0,0 +1,472 @@
+package ch.unil.furrybuddy.domain;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only journal in numbered segment files (wal-<first seq>.log) plus fuzzy snapshots (snapshot-<seq>.snap,
+// see SnapshotFile).
+//
+// Segment frame layout:
+//   int length | int crc32(body) | body = long seq | byte op | byte entity type | long msb | long lsb | json
+//
+// Writers only serialize their entity and enqueue the frame; a single flusher thread drains whatever is queued,
+// writes it with one gathering write and one fsync, then wakes all writers of the batch (group commit).
+// Every snapshotEvery records the flusher starts a new segment at seq S and a background task dumps the state
+// into snapshot-S. Records >= S are replayed on top of it, which also repairs entities that changed mid-dump.
+// Old snapshots are never loaded into memory here: recovery hands the mapped file to ApplicationState.
+final class WriteAheadLog implements Journal {
+
+    private static final Logger log = Logger.getLogger(WriteAheadLog.class.getName());
+
+    private static final byte UPSERT = 0;
+    private static final byte DELETE = 1;
+    // an upsert of a closed adoption request
+    private static final byte UPSERT_CLOSED = 2;
+    private static final int FRAME_HEADER = Integer.BYTES * 2;
+    private static final int BODY_HEADER = Long.BYTES + 2 + Long.BYTES * 2;
+    private static final int MAX_BATCH = 4096;
+    private static final String SEGMENT = "wal-";
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    // frames of one upsert/delete, or of a whole Batch; control actions carry no frames
+    private record Pending(List<ByteBuffer> frames, Runnable control, CompletableFuture<Void> done) {
+    }
+
+    private record Frame(long seq, byte op, EntityType type, UUID id, byte[] payload) {
+    }
+
+    // The good frames of a segment file and where the last of them ends
+    private record Segment(List<Frame> frames, long end) {
+    }
+
+    private final Path directory;
+    private final long snapshotEvery;
+    private final Consumer<Sink> snapshotter;
+    private final Jsonb jsonb = JsonbBuilder.create();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService snapshots = Executors.newSingleThreadExecutor(r -> daemon(r, "furrybuddy-wal-snapshot"));
+    private final Thread flusher;
+    private volatile boolean running = true;
+    // Set by the flusher when a write or fsync failed: nothing is accepted after that, since it is unknown what
+    // reached the disk
+    private volatile Throwable failure;
+
+    // Owned by the flusher thread once it is started
+    private final CRC32 crc = new CRC32();
+    private FileChannel segment;
+    private long nextSeq = 1;
+    private long sinceSnapshot;
+
+    WriteAheadLog(Path directory, long snapshotEvery, Consumer<Sink> snapshotter) {
+        this.directory = directory;
+        this.snapshotEvery = snapshotEvery;
+        this.snapshotter = snapshotter;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal directory " + directory, e);
+        }
+        flusher = daemon(this::flushLoop, "furrybuddy-wal-flusher");
+    }
+
+    @Override
+    public void upsert(EntityType type, UUID id, Object entity, boolean closed) {
+        append(encode(closed ? UPSERT_CLOSED : UPSERT, type, id,
+                jsonb.toJson(entity).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void delete(EntityType type, UUID id) {
+        append(encode(DELETE, type, id, new byte[0]));
+    }
+
+    @Override
+    public Batch batch() {
+        var frames = new ArrayList<ByteBuffer>();
+        return new Batch() {
+            @Override
+            public void upsert(EntityType type, UUID id, Object entity, boolean closed) {
+                frames.add(encode(closed ? UPSERT_CLOSED : UPSERT, type, id,
+                        jsonb.toJson(entity).getBytes(StandardCharsets.UTF_8)));
+            }
+
+            @Override
+            public void delete(EntityType type, UUID id) {
+                frames.add(encode(DELETE, type, id, new byte[0]));
+            }
+
+            @Override
+            public void commit() {
+                if (!frames.isEmpty()) {
+                    append(frames);
+                }
+            }
+        };
+    }
+
+    private void append(ByteBuffer frame) {
+        append(List.of(frame));
+    }
+
+    private void append(List<ByteBuffer> frames) {
+        checkWritable();
+        var pending = new Pending(frames, null, new CompletableFuture<>());
+        queue.add(pending);
+        await(pending.done());
+    }
+
+    @Override
+    public void checkWritable() {
+        if (failure != null) {
+            throw new IllegalStateException("Journal failed, no change is accepted until a restart!", failure);
+        }
+        if (!running) {
+            throw new IllegalStateException("Journal is closed!");
+        }
+    }
+
+    @Override
+    public boolean recover(Consumer<SnapshotFile> baseline, Replayer replayer) {
+        boolean recovered = false;
+        long snapshotSeq = 0;
+        try {
+            var snapshot = latest(SNAPSHOT, SNAPSHOT_SUFFIX);
+            if (snapshot != null) {
+                snapshotSeq = sequenceOf(snapshot, SNAPSHOT);
+                baseline.accept(SnapshotFile.open(snapshot));
+                recovered = true;
+            }
+            long lastSeq = snapshotSeq - 1;
+            for (var file : list(SEGMENT, ".log")) {
+                var contents = read(file);
+                if (contents.end() < Files.size(file)) {
+                    // appending after the torn tail would hide the new frames from the next recovery
+                    try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(contents.end());
+                        channel.force(true);
+                    }
+                }
+                for (var frame : contents.frames()) {
+                    if (frame.seq() >= snapshotSeq) {
+                        replayer.apply(frame.type(), frame.id(), frame.op() == DELETE ? null : decode(frame),
+                                frame.op() == UPSERT_CLOSED);
+                        recovered = true;
+                    }
+                    lastSeq = Math.max(lastSeq, frame.seq());
+                }
+            }
+            nextSeq = Math.max(1, lastSeq + 1);
+            openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot recover journal from " + directory, e);
+        }
+        flusher.start();
+        log.info("Recovered journal from " + directory + " up to sequence " + (nextSeq - 1));
+        return recovered;
+    }
+
+    @Override
+    public void reset() {
+        // Runs on the snapshot executor so it cannot interleave with a snapshot being written
+        var task = snapshots.submit(() -> {
+            var pending = new Pending(null, () -> {
+                try {
+                    segment.close();
+                    for (var file : list("", "")) {
+                        Files.deleteIfExists(file);
+                    }
+                    sinceSnapshot = 0;
+                    openSegment();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, new CompletableFuture<>());
+            queue.add(pending);
+            await(pending.done());
+        });
+        try {
+            task.get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not reset the journal!", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+            snapshots.shutdown();
+            snapshots.awaitTermination(1, TimeUnit.MINUTES);
+            if (segment != null) {
+                segment.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not close journal segment", e);
+        }
+        try {
+            jsonb.close();
+        } catch (Exception e) {
+            log.log(Level.FINE, "Could not close JSON-B", e);
+        }
+    }
+
+    // FLUSHER
+    private void flushLoop() {
+        var batch = new ArrayList<Pending>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (failure != null) {
+                    // queued before the writers could see the failure
+                    batch.forEach(pending -> pending.done().completeExceptionally(failure));
+                    continue;
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.SEVERE, "Journal write failed, refusing changes from now on", e);
+                failure = e;
+                batch.forEach(pending -> pending.done().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) throws IOException {
+        var frames = new ArrayList<ByteBuffer>(batch.size());
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            var pending = batch.get(i);
+            if (pending.control() == null) {
+                for (var frame : pending.frames()) {
+                    frames.add(stamp(frame));
+                }
+                continue;
+            }
+            // Control actions see everything queued before them on disk
+            write(frames, batch.subList(from, i));
+            frames.clear();
+            try {
+                pending.control().run();
+                pending.done().complete(null);
+            } catch (RuntimeException e) {
+                pending.done().completeExceptionally(e);
+            }
+            from = i + 1;
+        }
+        write(frames, batch.subList(from, batch.size()));
+    }
+
+    private void write(List<ByteBuffer> frames, List<Pending> committed) throws IOException {
+        if (frames.isEmpty()) {
+            return;
+        }
+        var buffers = frames.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (var buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= segment.write(buffers);
+        }
+        segment.force(false);
+        committed.forEach(pending -> pending.done().complete(null));
+
+        sinceSnapshot += frames.size();
+        if (sinceSnapshot >= snapshotEvery) {
+            sinceSnapshot = 0;
+            segment.close();
+            long start = nextSeq;
+            openSegment();
+            snapshots.execute(() -> snapshot(start));
+        }
+    }
+
+    private ByteBuffer stamp(ByteBuffer frame) {
+        long seq = nextSeq++;
+        frame.putLong(FRAME_HEADER, seq);
+        crc.reset();
+        crc.update(frame.slice(FRAME_HEADER, frame.limit() - FRAME_HEADER));
+        frame.putInt(Integer.BYTES, (int) crc.getValue());
+        return frame;
+    }
+
+    private void openSegment() throws IOException {
+        segment = FileChannel.open(directory.resolve(name(SEGMENT, nextSeq, ".log")),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // SNAPSHOTS
+    private void snapshot(long start) {
+        var target = directory.resolve(name(SNAPSHOT, start, SNAPSHOT_SUFFIX));
+        var temporary = directory.resolve(name(SNAPSHOT, start, ".tmp"));
+        long begin = System.nanoTime();
+        try {
+            try (var writer = SnapshotFile.writer(temporary)) {
+                snapshotter.accept(writer);
+                writer.finish();
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            // Everything before the new segment is now covered by the snapshot
+            for (var file : list(SEGMENT, ".log")) {
+                if (sequenceOf(file, SEGMENT) < start) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            for (var file : list(SNAPSHOT, SNAPSHOT_SUFFIX)) {
+                if (sequenceOf(file, SNAPSHOT) < start) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            log.info("Wrote journal snapshot " + target.getFileName() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.SEVERE, "Journal snapshot failed, the log is kept", e);
+        }
+    }
+
+    // ENCODING
+    private static ByteBuffer encode(byte op, EntityType type, UUID id, byte[] payload) {
+        int bodyLength = BODY_HEADER + payload.length;
+        var frame = ByteBuffer.allocate(FRAME_HEADER + bodyLength);
+        frame.putInt(bodyLength)
+                .putInt(0)          // crc, set once the seq is known
+                .putLong(0)         // seq, assigned by the flusher
+                .put(op)
+                .put((byte) type.ordinal())
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .put(payload);
+        return frame.flip();
+    }
+
+    private Object decode(Frame frame) {
+        return jsonb.fromJson(new String(frame.payload(), StandardCharsets.UTF_8), frame.type().entityClass());
+    }
+
+    // Reads frames up to the end of the file or the first torn/corrupt frame
+    private static Segment read(Path file) throws IOException {
+        var frames = new ArrayList<Frame>();
+        long end = 0;
+        var crc = new CRC32();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int expected = in.readInt();
+                    if (length < BODY_HEADER) {
+                        throw new IOException("bad frame length " + length);
+                    }
+                    var body = new byte[length];
+                    in.readFully(body);
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != expected) {
+                        throw new IOException("checksum mismatch");
+                    }
+                    var buffer = ByteBuffer.wrap(body);
+                    long seq = buffer.getLong();
+                    byte op = buffer.get();
+                    var type = EntityType.of(buffer.get());
+                    var id = new UUID(buffer.getLong(), buffer.getLong());
+                    var payload = new byte[buffer.remaining()];
+                    buffer.get(payload);
+                    frames.add(new Frame(seq, op, type, id, payload));
+                    end += FRAME_HEADER + length;
+                } catch (IOException | IllegalArgumentException e) {
+                    log.warning("Ignoring journal tail of " + file.getFileName() + " after "
+                            + frames.size() + " records: " + e.getMessage());
+                    break;
+                }
+            }
+        }
+        return new Segment(frames, end);
+    }
+
+    // FILES
+    private static String name(String prefix, long seq, String suffix) {
+        return prefix + String.format("%020d", seq) + suffix;
+    }
+
+    private static long sequenceOf(Path file, String prefix) {
+        var name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), prefix.length() + 20));
+    }
+
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        var name = file.getFileName().toString();
+                        return (name.startsWith(SEGMENT) || name.startsWith(SNAPSHOT))
+                                && name.startsWith(prefix) && name.endsWith(suffix);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path latest(String prefix, String suffix) throws IOException {
+        var files = list(prefix, suffix);
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    private static void await(CompletableFuture<Void> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Could not write to the journal!", e.getCause());
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        var thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
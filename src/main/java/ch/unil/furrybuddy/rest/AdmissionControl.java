@@ -0,0 +1,231 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Admission control for AdmissionFilter, in two layers:
+// - per client (the signed-in user, else the remote address) a token bucket and a cap on requests in flight,
+//   refused with 429;
+// - per endpoint a concurrency limit that follows the latency, refused with 503. It shrinks while recent responses
+//   are clearly slower than the endpoint's long-term average and grows back while they are not and the limit is
+//   actually in use (the gradient limiter of Netflix's concurrency-limits).
+// All of it is CAS on atomics. Clients live in a fixed open-addressing table: an idle client (full bucket, nothing
+// in flight) holds nothing worth keeping, so its slot is simply taken over, and memory stays bounded however many
+// clients show up. When every slot near a new client is busy, it is refused with 503 as well.
+@ApplicationScoped
+public class AdmissionControl {
+
+    public static final String RATE_PROPERTY = "furrybuddy.limit.rate";
+    public static final String BURST_PROPERTY = "furrybuddy.limit.burst";
+    public static final String CLIENT_CONCURRENCY_PROPERTY = "furrybuddy.limit.clientConcurrency";
+    public static final String CLIENTS_PROPERTY = "furrybuddy.limit.clients";
+    public static final String MAX_CONCURRENCY_PROPERTY = "furrybuddy.limit.maxConcurrency";
+
+    private static final int PROBES = 8;
+    private static final double MIN_LIMIT = 8;
+    private static final double INITIAL_LIMIT = 100;
+    // recent latency may be this much above the long-term average before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.01;
+    private static final double SMOOTHING = 0.05;
+
+    public record Stats(long throttled, long crowded, long shed, Map<String, Integer> limits) {
+    }
+
+    // What admit hands out: a refusal, or the slots to give back through release once the request is answered
+    record Ticket(Client client, Endpoint endpoint, long started, Response refusal) {
+    }
+
+    static final class Client {
+        private final String id;
+        // GCRA: when the bucket would be full again, in System.nanoTime
+        private final AtomicLong full;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Client(String id, long now) {
+            this.id = id;
+            full = new AtomicLong(now);
+        }
+
+        private boolean isIdle(long now) {
+            return inFlight.get() == 0 && full.get() - now <= 0;
+        }
+    }
+
+    static final class Endpoint {
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // doubles as raw bits: the limit, and the short and long moving averages of the latency in microseconds
+        private final AtomicLong limit;
+        private final AtomicLong shortLatency = new AtomicLong();
+        private final AtomicLong longLatency = new AtomicLong();
+
+        private Endpoint(String name, double limit) {
+            this.name = name;
+            this.limit = new AtomicLong(Double.doubleToRawLongBits(limit));
+        }
+
+        int limit() {
+            return (int) Double.longBitsToDouble(limit.get());
+        }
+    }
+
+    private final double rate = Double.parseDouble(System.getProperty(RATE_PROPERTY, "200"));
+    private final long interval = rate > 0 ? (long) (1_000_000_000 / rate) : 0;
+    private final long burstWindow = interval * Math.max(1, Integer.getInteger(BURST_PROPERTY, 400));
+    private final int clientConcurrency = Integer.getInteger(CLIENT_CONCURRENCY_PROPERTY, 64);
+    private final double maxLimit = Math.max(MIN_LIMIT, Integer.getInteger(MAX_CONCURRENCY_PROPERTY, 1000));
+    private final AtomicReferenceArray<Client> clients = new AtomicReferenceArray<>(
+            Integer.highestOneBit(Math.max(PROBES, Integer.getInteger(CLIENTS_PROPERTY, 65536))));
+    private final Map<Method, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder crowded = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    Ticket admit(String clientID, Method method) {
+        long now = System.nanoTime();
+        var client = client(clientID, now);
+        if (client == null) {
+            crowded.increment();
+            return refuse(Response.Status.SERVICE_UNAVAILABLE, 1);
+        }
+        long wait = take(client, now);
+        if (wait > 0) {
+            throttled.increment();
+            return refuse(Response.Status.TOO_MANY_REQUESTS, (wait + 999_999_999) / 1_000_000_000);
+        }
+        if (client.inFlight.incrementAndGet() > clientConcurrency) {
+            client.inFlight.decrementAndGet();
+            throttled.increment();
+            return refuse(Response.Status.TOO_MANY_REQUESTS, 1);
+        }
+        var endpoint = endpoint(method);
+        if (endpoint.inFlight.incrementAndGet() > endpoint.limit()) {
+            endpoint.inFlight.decrementAndGet();
+            client.inFlight.decrementAndGet();
+            shed.increment();
+            return refuse(Response.Status.SERVICE_UNAVAILABLE, 1);
+        }
+        return new Ticket(client, endpoint, now, null);
+    }
+
+    void release(Ticket ticket) {
+        var endpoint = ticket.endpoint();
+        int inFlight = endpoint.inFlight.getAndDecrement();
+        ticket.client().inFlight.decrementAndGet();
+        adapt(endpoint, (System.nanoTime() - ticket.started()) / 1000.0, inFlight);
+    }
+
+    public Stats stats() {
+        var limits = new TreeMap<String, Integer>();
+        endpoints.values().forEach(endpoint -> limits.put(endpoint.name, endpoint.limit()));
+        return new Stats(throttled.sum(), crowded.sum(), shed.sum(), limits);
+    }
+
+    private static Ticket refuse(Response.Status status, long retryAfterSeconds) {
+        return new Ticket(null, null, 0, Response.status(status)
+                .header(HttpHeaders.RETRY_AFTER, Math.max(1, retryAfterSeconds))
+                .build());
+    }
+
+    // The client's slot, or null when all of its probe slots belong to other active clients. Two threads meeting
+    // a new client at once may both insert it; the copy found second in probe order just goes idle and is reused.
+    Client client(String id, long now) {
+        int mask = clients.length() - 1;
+        int hash = id.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            int free = -1;
+            Client previous = null;
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (hash + i) & mask;
+                var client = clients.get(slot);
+                if (client != null && client.id.equals(id)) {
+                    return client;
+                }
+                if (free < 0 && (client == null || client.isIdle(now))) {
+                    free = slot;
+                    previous = client;
+                }
+            }
+            if (free < 0) {
+                return null;
+            }
+            var created = new Client(id, now);
+            if (clients.compareAndSet(free, previous, created)) {
+                return created;
+            }
+        }
+        return null;
+    }
+
+    // 0 when a token was taken, else the nanoseconds until the next one
+    long take(Client client, long now) {
+        if (interval == 0) {
+            return 0;
+        }
+        while (true) {
+            long full = client.full.get();
+            long next = Math.max(full - now, 0) + now + interval;
+            long wait = next - now - burstWindow;
+            if (wait > 0) {
+                return wait;
+            }
+            if (client.full.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    Endpoint endpoint(Method method) {
+        // get first: computeIfAbsent would allocate its lambda on every call
+        var endpoint = endpoints.get(method);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(method,
+                m -> new Endpoint(RequestMetrics.nameOf(m), Math.min(INITIAL_LIMIT, maxLimit)));
+    }
+
+    void adapt(Endpoint endpoint, double latency, int inFlight) {
+        double recent = average(endpoint.shortLatency, latency, SHORT_WEIGHT);
+        double usual = average(endpoint.longLatency, latency, LONG_WEIGHT);
+        if (usual > 2 * recent) {
+            // the load is gone: let the long-term average come down faster than its weight allows
+            average(endpoint.longLatency, recent, SHORT_WEIGHT);
+        }
+        double gradient = Math.max(0.5, Math.min(1, TOLERANCE * usual / Math.max(recent, 1e-3)));
+        while (true) {
+            long bits = endpoint.limit.get();
+            double limit = Double.longBitsToDouble(bits);
+            if (gradient >= 1 && inFlight < limit / 2) {
+                return; // nowhere near the limit, so this says nothing about a higher one
+            }
+            double target = limit * gradient + Math.sqrt(limit);
+            double next = Math.max(MIN_LIMIT, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+            if (next == limit || endpoint.limit.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    // Exponential moving average kept as raw double bits; the first sample starts it
+    private static double average(AtomicLong average, double sample, double weight) {
+        while (true) {
+            long bits = average.get();
+            double current = Double.longBitsToDouble(bits);
+            double next = bits == 0 ? sample : current + weight * (sample - current);
+            if (average.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return next;
+            }
+        }
+    }
+}
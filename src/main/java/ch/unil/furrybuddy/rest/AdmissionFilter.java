@@ -0,0 +1,73 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.ext.Provider;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+// Lets a request through to its resource method only when AdmissionControl agrees, else answers 429 or 503 with
+// Retry-After. Runs after AuthenticationFilter, so a signed-in client is limited as its user wherever it connects
+// from. An event stream only takes a token: it stays open far longer than a request and ChangeFeed caps those.
+// A request another shard forwarded counts for the client that sent it there (see ShardClient).
+@Provider
+@Priority(Priorities.AUTHORIZATION)
+public class AdmissionFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String TICKET = AdmissionFilter.class.getName() + ".ticket";
+    // the client the request was admitted for, passed on by ShardRouter
+    static final String CLIENT = AdmissionFilter.class.getName() + ".client";
+
+    @Inject
+    private AdmissionControl control;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Context
+    private HttpServletRequest servletRequest;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        var method = resourceInfo.getResourceMethod();
+        var client = ShardClient.forwardedClient(request);
+        if (client == null) {
+            var principal = SessionPrincipal.of(request.getSecurityContext());
+            client = principal != null ? "user " + principal.userID() : "address " + servletRequest.getRemoteAddr();
+        }
+        request.setProperty(CLIENT, client);
+        var ticket = control.admit(client, method);
+        if (ticket.refusal() != null) {
+            request.abortWith(ticket.refusal());
+        } else if (isEventStream(method)) {
+            control.release(ticket);
+        } else {
+            request.setProperty(TICKET, ticket);
+        }
+    }
+
+    // Response filters also run for requests aborted by a request filter, which hold no ticket
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (request.getProperty(TICKET) instanceof AdmissionControl.Ticket ticket) {
+            request.removeProperty(TICKET);
+            control.release(ticket);
+        }
+    }
+
+    private static boolean isEventStream(Method method) {
+        var produces = method.getAnnotation(Produces.class);
+        return produces != null && Arrays.asList(produces.value()).contains(MediaType.SERVER_SENT_EVENTS);
+    }
+}
@@ -2,52 +2,84 @@ package ch.unil.furrybuddy.rest;
 
 import ch.unil.furrybuddy.domain.Adopter;
 import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 @Path("/adopters")
 public class AdopterRessource {
     @Inject
     private ApplicationState state;
 
+    @Inject
+    private ResponseCache responses;
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Adopter> getAllAdopters(){
-        return new ArrayList<>(state.getAllAdopters().values());
+    @Gather(value = Gather.Merge.PAGE, type = EntityType.ADOPTER)
+    public CompletionStage<Response> getAllAdopters(@QueryParam("cursor") UUID cursor,
+                                                    @QueryParam("limit") Integer limit,
+                                                    @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                                    @Context Request request){
+        return RequestExecutor.supply(() -> Versions.list(request, state, EntityType.ADOPTER,
+                () -> Pagination.list(limit == null ? state.getAllAdopters()
+                        : state.getAdoptersAfter(cursor, Pagination.fetchCount(limit)), cursor, limit, stream)));
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public Adopter getAdopter(@PathParam("id") UUID adopterID){
-        return state.getAdopter(adopterID);
+    @ShardKey("id")
+    public CompletionStage<Response> getAdopter(@PathParam("id") UUID adopterID, @Context Request request){
+        return RequestExecutor.supply(() -> Versions.get(request, state, responses, EntityType.ADOPTER, adopterID,
+                () -> state.getAdopter(adopterID)));
     }
 
     @PUT
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean setAdopter(@PathParam("id") UUID adopterID, Adopter adopter){
-        return state.setAdopter(adopterID, adopter);
+    @ShardKey("id")
+    public CompletionStage<Response> setAdopter(@PathParam("id") UUID adopterID, Adopter adopter,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch){
+        return RequestExecutor.supply(() -> Versions.update(state, ifMatch,
+                expectedVersion -> state.setAdopter(adopterID, adopter, expectedVersion)));
     }
 
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public Adopter addAdopter(Adopter adopter){
-        state.addAdopter(adopter);
-        return adopter;
+    @ShardKey(body = "userID")
+    public CompletionStage<Adopter> addAdopter(Adopter adopter){
+        return RequestExecutor.supply(() -> {
+            state.addAdopter(adopter);
+            return adopter;
+        });
     }
 
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean deleteAdopter(@PathParam("id") UUID adopterID){
-        return state.removeAdopter(adopterID);
+    @ShardKey("id")
+    public CompletionStage<Boolean> deleteAdopter(@PathParam("id") UUID adopterID){
+        return RequestExecutor.supply(() -> state.removeAdopter(adopterID));
+    }
+
+    // IMPORT: adopters as NDJSON, streamed through NdjsonImport
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    @Path("/import")
+    public ImportSummary importAdopters(InputStream body){
+        return NdjsonImport.run(state, body, Adopter.class, state::prepare, state::addAdopter);
     }
 }
@@ -2,52 +2,100 @@ package ch.unil.furrybuddy.rest;
 
 import ch.unil.furrybuddy.domain.AdoptionRequest;
 import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 @Path("/adoptionRequests")
 public class AdoptionRequestRessource {
     @Inject
     private ApplicationState state;
 
+    @Inject
+    private ResponseCache responses;
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<AdoptionRequest> getAllAdoptionRequests(){
-        return new ArrayList<>(state.getAllAdoptionRequests().values());
+    @Gather(value = Gather.Merge.PAGE, type = EntityType.ADOPTION_REQUEST)
+    public CompletionStage<Response> getAllAdoptionRequests(@QueryParam("cursor") UUID cursor,
+                                                            @QueryParam("limit") Integer limit,
+                                                            @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                                            @Context Request request){
+        return RequestExecutor.supply(() -> Versions.list(request, state, EntityType.ADOPTION_REQUEST,
+                () -> Pagination.list(limit == null ? state.getAllAdoptionRequests()
+                        : state.getAdoptionRequestsAfter(cursor, Pagination.fetchCount(limit)),
+                        cursor, limit, stream)));
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public AdoptionRequest getAdoptionRequest(@PathParam("id") UUID adoptionRequestID){
-        return state.getAdoptionRequest(adoptionRequestID);
+    @ShardKey("id")
+    public CompletionStage<Response> getAdoptionRequest(@PathParam("id") UUID adoptionRequestID, @Context Request request){
+        return RequestExecutor.supply(() -> Versions.get(request, state, responses, EntityType.ADOPTION_REQUEST,
+                adoptionRequestID, () -> state.getAdoptionRequest(adoptionRequestID)));
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/advertisement/{id}")
+    @Gather(value = Gather.Merge.LIST, type = EntityType.ADOPTION_REQUEST)
+    public CompletionStage<List<AdoptionRequest>> getAdoptionRequestsForAdvertisement(@PathParam("id") UUID advertisementID){
+        return RequestExecutor.supply(() -> state.getAdoptionRequestsForAdvertisement(advertisementID));
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/adopter/{id}")
+    @Gather(value = Gather.Merge.LIST, type = EntityType.ADOPTION_REQUEST)
+    public CompletionStage<List<AdoptionRequest>> getAdoptionRequestsByAdopter(@PathParam("id") UUID adopterID){
+        return RequestExecutor.supply(() -> state.getAdoptionRequestsByAdopter(adopterID));
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/petOwner/{id}/pending")
+    @Gather(value = Gather.Merge.LIST, type = EntityType.ADOPTION_REQUEST)
+    public CompletionStage<List<AdoptionRequest>> getPendingAdoptionRequests(@PathParam("id") UUID petOwnerID){
+        return RequestExecutor.supply(() -> state.getPendingAdoptionRequests(petOwnerID));
     }
 
     @PUT
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean setAdoptionRequest(@PathParam("id") UUID adoptionRequestID, AdoptionRequest adoptionRequest){
-        return state.setAdoptionRequest(adoptionRequestID, adoptionRequest);
+    @ShardKey("id")
+    public CompletionStage<Response> setAdoptionRequest(@PathParam("id") UUID adoptionRequestID, AdoptionRequest adoptionRequest,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch){
+        return RequestExecutor.supply(() -> Versions.update(state, ifMatch,
+                expectedVersion -> state.setAdoptionRequest(adoptionRequestID, adoptionRequest, expectedVersion)));
     }
 
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public AdoptionRequest addAdoptionRequest(AdoptionRequest adoptionRequest){
-        state.addAdoptionRequest(adoptionRequest);
-        return adoptionRequest;
+    @ShardKey(body = "requestID")
+    public CompletionStage<AdoptionRequest> addAdoptionRequest(AdoptionRequest adoptionRequest){
+        return RequestExecutor.supply(() -> {
+            state.addAdoptionRequest(adoptionRequest);
+            return adoptionRequest;
+        });
     }
 
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean removeAdoptionRequest(@PathParam("id") UUID adoptionRequestID){
-        return state.removeAdoptionRequest(adoptionRequestID);
+    @ShardKey("id")
+    public CompletionStage<Boolean> removeAdoptionRequest(@PathParam("id") UUID adoptionRequestID){
+        return RequestExecutor.supply(() -> state.removeAdoptionRequest(adoptionRequestID));
     }
 }
@@ -2,54 +2,126 @@ package ch.unil.furrybuddy.rest;
 
 import ch.unil.furrybuddy.domain.Advertisement;
 import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 @Path("/advertisements")
 public class AdvertisementRessource {
 
+    private static final Type OPERATION_TYPE = new BulkOperation<Advertisement>() {}.getClass().getGenericSuperclass();
+
     @Inject
     private ApplicationState state;
 
+    @Inject
+    private ResponseCache responses;
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Advertisement> getAllAdvertisements(){
-        return new ArrayList<>(state.getAllAds().values());
+    @Gather(value = Gather.Merge.PAGE, type = EntityType.ADVERTISEMENT)
+    public CompletionStage<Response> getAllAdvertisements(@QueryParam("cursor") UUID cursor,
+                                                          @QueryParam("limit") Integer limit,
+                                                          @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                                          @Context Request request){
+        return RequestExecutor.supply(() -> Versions.list(request, state, EntityType.ADVERTISEMENT,
+                () -> Pagination.list(limit == null ? state.getAllAds()
+                        : state.getAdsAfter(cursor, Pagination.fetchCount(limit)), cursor, limit, stream)));
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public Advertisement getAdvertisement(@PathParam("id") UUID advertisementID){
-        return state.getAdvertisement(advertisementID);
+    @ShardKey("id")
+    public CompletionStage<Response> getAdvertisement(@PathParam("id") UUID advertisementID, @Context Request request){
+        return RequestExecutor.supply(() -> Versions.get(request, state, responses, EntityType.ADVERTISEMENT,
+                advertisementID, () -> state.getAdvertisement(advertisementID)));
     }
 
     @PUT
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean setAdvertisement(@PathParam("id") UUID advertisementID, Advertisement advertisement){
-        return state.setAdvertisement(advertisementID, advertisement);
+    @ShardKey("id")
+    public CompletionStage<Response> setAdvertisement(@PathParam("id") UUID advertisementID, Advertisement advertisement,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch){
+        return RequestExecutor.supply(() -> Versions.update(state, ifMatch,
+                expectedVersion -> state.setAdvertisement(advertisementID, advertisement, expectedVersion)));
     }
 
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public Advertisement addAdvertisement(Advertisement advertisement){
-        state.addAdvertisement(advertisement);
-        return advertisement;
+    @ShardKey(body = "advertisementID")
+    public CompletionStage<Advertisement> addAdvertisement(Advertisement advertisement){
+        return RequestExecutor.supply(() -> {
+            state.addAdvertisement(advertisement);
+            return advertisement;
+        });
     }
 
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean removeAdvertisement(@PathParam("id") UUID advertisementID){
-        return state.removeAdvertisement(advertisementID);
+    @ShardKey("id")
+    public CompletionStage<Boolean> removeAdvertisement(@PathParam("id") UUID advertisementID){
+        return RequestExecutor.supply(() -> state.removeAdvertisement(advertisementID));
+    }
+
+    // BULK: a JSON array or NDJSON of {"op", "id", "entity"}; like createAdvertisement, a pet the
+    // service does not know yet is created along with its advertisement
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/bulk")
+    public List<BulkResult> bulkAdvertisements(List<BulkOperation<Advertisement>> operations){
+        return Bulk.apply(state, operations, bulkTarget());
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    @Path("/bulk")
+    public List<BulkResult> bulkAdvertisementsNdjson(InputStream body){
+        return Bulk.applyNdjson(state, body, OPERATION_TYPE, bulkTarget());
+    }
+
+    private Bulk.Target<Advertisement> bulkTarget() {
+        return new Bulk.Target<>() {
+            @Override
+            public UUID create(UUID id, Advertisement advertisement) {
+                var pet = advertisement.getPet();
+                if (pet != null && (pet.getPetID() == null || !state.hasPet(pet.getPetID()))) {
+                    state.requireLocal(pet.getPetID());
+                    state.addPet(pet);
+                }
+                if (id != null) {
+                    return state.addAdvertisement(id, advertisement).getAdvertisementID();
+                }
+                return state.addAdvertisement(advertisement).getAdvertisementID();
+            }
+
+            @Override
+            public boolean update(UUID id, Advertisement advertisement) {
+                return state.setAdvertisement(id, advertisement);
+            }
+
+            @Override
+            public boolean delete(UUID id) {
+                return state.removeAdvertisement(id);
+            }
+        };
     }
 
 }
@@ -0,0 +1,66 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.ext.Provider;
+
+import java.security.Principal;
+
+// Turns "Authorization: Bearer <session token>" into the request's SecurityContext, from the signature alone.
+// A bad or expired token is refused with 401; requests without one stay anonymous and the resources decide.
+@Provider
+@Priority(Priorities.AUTHENTICATION)
+public class AuthenticationFilter implements ContainerRequestFilter {
+
+    // The /{petOwner} and /{adopter} endpoints of ServiceResource refuse anonymous calls unless this is false
+    public static final String REQUIRED_PROPERTY = "furrybuddy.auth.required";
+
+    private static final String BEARER = "Bearer ";
+
+    private record SessionContext(SessionPrincipal principal, boolean secure) implements SecurityContext {
+        @Override
+        public Principal getUserPrincipal() {
+            return principal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return principal.role().name().equals(role);
+        }
+
+        @Override
+        public boolean isSecure() {
+            return secure;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return "Bearer";
+        }
+    }
+
+    static boolean isRequired() {
+        return Boolean.parseBoolean(System.getProperty(REQUIRED_PROPERTY, "true"));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        var header = request.getHeaderString(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            return;
+        }
+        var principal = SessionTokens.verify(header.substring(BEARER.length()).trim());
+        if (principal == null) {
+            request.abortWith(Response.status(Response.Status.UNAUTHORIZED)
+                    .header(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"")
+                    .build());
+            return;
+        }
+        request.setSecurityContext(new SessionContext(principal, request.getSecurityContext().isSecure()));
+    }
+}
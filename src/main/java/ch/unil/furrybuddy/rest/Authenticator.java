@@ -0,0 +1,131 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.User;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Logins. Password hashing is deliberately slow, so it runs on a small pool with a bounded queue: a login storm
+// fills the queue and gets RejectedExecutionException instead of taking every request thread.
+// A successful login is remembered for the session lifetime under a keyed digest of the credentials, so
+// repeating it returns the same token without hashing again.
+@ApplicationScoped
+public class Authenticator {
+
+    public static final String THREADS_PROPERTY = "furrybuddy.auth.threads";
+    public static final String QUEUE_PROPERTY = "furrybuddy.auth.queue";
+    public static final String SESSION_SECONDS_PROPERTY = "furrybuddy.auth.sessionSeconds";
+
+    private static final int MAX_SESSIONS = 100_000;
+
+    // storedPassword is the hash the login was checked against; a changed password ends the session
+    private record Session(UUID userID, boolean petOwner, String storedPassword, LoginResult result) {
+    }
+
+    @Inject
+    private ApplicationState state;
+
+    private final long sessionSeconds = Long.getLong(SESSION_SECONDS_PROPERTY, 300);
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor hashing;
+
+    public Authenticator() {
+        int threads = Integer.getInteger(THREADS_PROPERTY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        hashing = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Integer.getInteger(QUEUE_PROPERTY, 256)),
+                r -> {
+                    var thread = new Thread(r, "furrybuddy-auth");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void close() {
+        hashing.shutdownNow();
+    }
+
+    // Completes with null when the user does not exist, the password is wrong or the role is unknown.
+    // Throws RejectedExecutionException right away when too many logins are already waiting.
+    public CompletionStage<LoginResult> login(String email, String password, String role) {
+        boolean petOwner;
+        if ("petOwner".equals(role)) {
+            petOwner = true;
+        } else if ("adopter".equals(role)) {
+            petOwner = false;
+        } else {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var key = SessionTokens.fingerprint(role, email, password);
+        var session = sessions.get(key);
+        if (session != null) {
+            if (isValid(session)) {
+                return CompletableFuture.completedFuture(session.result());
+            }
+            sessions.remove(key, session);
+        }
+
+        var result = new CompletableFuture<LoginResult>();
+        hashing.execute(() -> {
+            try {
+                result.complete(verify(key, email, password, petOwner));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private LoginResult verify(String key, String email, String password, boolean petOwner) {
+        var userID = state.authenticate(email, password, petOwner);
+        if (userID == null) {
+            return null;
+        }
+        long expiresAt = System.currentTimeMillis() / 1000 + sessionSeconds;
+        var role = petOwner ? User.Role.PET_OWNER : User.Role.ADOPTER;
+        var result = new LoginResult(userID, SessionTokens.issue(userID, role, expiresAt), expiresAt);
+        if (sessionSeconds > 0) {
+            if (sessions.size() >= MAX_SESSIONS) {
+                evictExpired();
+            }
+            sessions.put(key, new Session(userID, petOwner, storedPassword(userID, petOwner), result));
+        }
+        return result;
+    }
+
+    private boolean isValid(Session session) {
+        if (session.result().expiresAt() <= System.currentTimeMillis() / 1000) {
+            return false;
+        }
+        try {
+            return session.storedPassword().equals(storedPassword(session.userID(), session.petOwner()));
+        } catch (IllegalArgumentException e) {
+            return false; // the user was deleted
+        }
+    }
+
+    private String storedPassword(UUID userID, boolean petOwner) {
+        User user = petOwner ? state.getPetOwner(userID) : state.getAdopter(userID);
+        return user.getPassword();
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis() / 1000;
+        sessions.values().removeIf(session -> session.result().expiresAt() <= now);
+        if (sessions.size() >= MAX_SESSIONS) {
+            sessions.clear();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+// Shared handling of the /bulk endpoints. Items are applied with ApplicationState.applyBatch, MAX_BATCH
+// at a time, so a batch costs one pass over the lock stripes and one journal append instead of one per item.
+final class Bulk {
+
+    static final String NDJSON = "application/x-ndjson";
+    static final int MAX_BATCH = 1000;
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+
+    // What each operation does for one entity type
+    interface Target<T> {
+        UUID create(UUID id, T entity);
+
+        boolean update(UUID id, T entity);
+
+        boolean delete(UUID id);
+    }
+
+    private Bulk() {
+    }
+
+    static <T> List<BulkResult> apply(ApplicationState state, List<BulkOperation<T>> operations, Target<T> target) {
+        if (operations == null) {
+            throw new IllegalArgumentException("Expected an array of operations!");
+        }
+        var results = new ArrayList<BulkResult>(operations.size());
+        for (int from = 0; from < operations.size(); from += MAX_BATCH) {
+            var chunk = operations.subList(from, Math.min(operations.size(), from + MAX_BATCH));
+            results.addAll(apply(state, chunk, from, target));
+        }
+        return results;
+    }
+
+    // One operation per line; blank lines are skipped and a line that does not parse fails on its own
+    static <T> List<BulkResult> applyNdjson(ApplicationState state, InputStream body, Type operationType,
+                                            Target<T> target) {
+        var results = new ArrayList<BulkResult>();
+        var chunk = new ArrayList<BulkOperation<T>>(MAX_BATCH);
+        int index = 0;
+        int chunkStart = 0;
+        try (var reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    BulkOperation<T> operation = JSONB.fromJson(line, operationType);
+                    chunk.add(operation);
+                } catch (RuntimeException e) {
+                    // flush what came before so results stay in line order
+                    results.addAll(apply(state, chunk, chunkStart, target));
+                    chunk.clear();
+                    results.add(new BulkResult(index, null, null, false, "Malformed line: " + e.getMessage()));
+                    chunkStart = index + 1;
+                    index++;
+                    continue;
+                }
+                index++;
+                if (chunk.size() == MAX_BATCH) {
+                    results.addAll(apply(state, chunk, chunkStart, target));
+                    chunk.clear();
+                    chunkStart = index;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the request body!", e);
+        }
+        results.addAll(apply(state, chunk, chunkStart, target));
+        return results;
+    }
+
+    private static <T> List<BulkResult> apply(ApplicationState state, List<BulkOperation<T>> chunk, int offset,
+                                              Target<T> target) {
+        if (chunk.isEmpty()) {
+            return List.of();
+        }
+        var changes = new ArrayList<Supplier<UUID>>(chunk.size());
+        for (var operation : chunk) {
+            changes.add(() -> change(state, operation, target));
+        }
+        var outcomes = state.applyBatch(changes);
+        var results = new ArrayList<BulkResult>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            var operation = chunk.get(i);
+            var outcome = outcomes.get(i);
+            if (outcome.error() == null) {
+                results.add(new BulkResult(offset + i, operation.getOp(), outcome.value(), true, null));
+            } else {
+                results.add(new BulkResult(offset + i, operation.getOp(), operation.getId(), false,
+                        outcome.error().getMessage()));
+            }
+        }
+        return results;
+    }
+
+    private static <T> UUID change(ApplicationState state, BulkOperation<T> operation, Target<T> target) {
+        var op = operation.getOp() == null ? "" : operation.getOp();
+        var id = operation.getId();
+        // an item is not passed on to the shard owning its ID: it fails here, and the others still apply
+        state.requireLocal(id);
+        switch (op) {
+            case "create" -> {
+                requireEntity(operation);
+                return target.create(id, operation.getEntity());
+            }
+            case "update" -> {
+                requireId(id);
+                requireEntity(operation);
+                if (!target.update(id, operation.getEntity())) {
+                    throw new IllegalArgumentException("Entity with this ID does not exist!");
+                }
+                return id;
+            }
+            case "delete" -> {
+                requireId(id);
+                if (!target.delete(id)) {
+                    throw new IllegalArgumentException("Entity with this ID does not exist!");
+                }
+                return id;
+            }
+            default -> throw new IllegalArgumentException("Operation must be create, update or delete!");
+        }
+    }
+
+    private static void requireId(UUID id) {
+        if (id == null) {
+            throw new IllegalArgumentException("This operation needs an id!");
+        }
+    }
+
+    private static void requireEntity(BulkOperation<?> operation) {
+        if (operation.getEntity() == null) {
+            throw new IllegalArgumentException("This operation needs an entity!");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ch.unil.furrybuddy.rest;
+
+import java.util.UUID;
+
+// One item of a bulk request: {"op": "create" | "update" | "delete", "id": ..., "entity": {...}}.
+// create takes an optional id; update needs both; delete only the id.
+public class BulkOperation<T> {
+    private String op;
+    private UUID id;
+    private T entity;
+
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public T getEntity() {
+        return entity;
+    }
+
+    public void setEntity(T entity) {
+        this.entity = entity;
+    }
+}
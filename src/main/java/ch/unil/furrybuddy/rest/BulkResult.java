@@ -0,0 +1,7 @@
+package ch.unil.furrybuddy.rest;
+
+import java.util.UUID;
+
+// Outcome of the bulk item at index (0-based, in request order); error is null when it was applied
+public record BulkResult(int index, String op, UUID id, boolean ok, String error) {
+}
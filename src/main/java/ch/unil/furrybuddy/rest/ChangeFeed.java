@@ -0,0 +1,192 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityChange;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.ObservesAsync;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+// The changes of the state and the workflow events as server-sent events. Each event gets the next offset and goes
+// into a ring holding the last HISTORY_PROPERTY of them, which is all the feed buffers: a subscriber only keeps its
+// position in the ring and is written to on a virtual thread of its own, so a slow or stuck client holds up neither
+// the event threads nor the other subscribers. One that falls further behind than the ring, or reconnects with a
+// Last-Event-ID that has left it, gets a RESET event and continues with the live events; it should reload what it
+// shows through the REST API.
+@ApplicationScoped
+public class ChangeFeed {
+
+    public static final String HISTORY_PROPERTY = "furrybuddy.feed.history";
+    public static final String SUBSCRIBERS_PROPERTY = "furrybuddy.feed.subscribers";
+
+    private record Change(long offset, WorkflowEvent event) {
+    }
+
+    @Inject
+    private ApplicationState state;
+
+    private final AtomicReferenceArray<Change> ring =
+            new AtomicReferenceArray<>(Math.max(1, Integer.getInteger(HISTORY_PROPERTY, 4096)));
+    // offset of the next event; written under the monitor, after its slot
+    private volatile long head;
+    private final int maxSubscribers = Integer.getInteger(SUBSCRIBERS_PROPERTY, 1000);
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writers =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("furrybuddy-feed-", 0).factory());
+
+    @PreDestroy
+    public void close() {
+        writers.shutdownNow();
+        subscribers.forEach(Subscriber::close);
+    }
+
+    void publish(@ObservesAsync EntityChange change) {
+        publish(WorkflowEvent.of(change));
+    }
+
+    void publish(@ObservesAsync WorkflowEvent event) {
+        synchronized (this) {
+            ring.set(slot(head), new Change(head, event));
+            head++;
+        }
+        subscribers.forEach(Subscriber::wake);
+    }
+
+    // 503 when the feed already has as many clients as it takes
+    void subscribe(SseEventSink sink, Sse sse, String lastEventID, Predicate<WorkflowEvent> filter) {
+        if (subscribers.size() >= maxSubscribers) {
+            subscribers.removeIf(subscriber -> subscriber.sink.isClosed());
+            if (subscribers.size() >= maxSubscribers) {
+                throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, 1)
+                        .build());
+            }
+        }
+        var subscriber = new Subscriber(sink, sse, filter, resumeFrom(lastEventID));
+        subscribers.add(subscriber);
+        subscriber.wake();
+    }
+
+    // The offset after the last one the client saw, the live events when it saw none, and -1 (missed) for an ID
+    // of an earlier run of the service, whose offsets started over
+    private long resumeFrom(String lastEventID) {
+        if (lastEventID == null || lastEventID.isBlank()) {
+            return head;
+        }
+        var prefix = Long.toHexString(state.getEpoch()) + "-";
+        if (lastEventID.startsWith(prefix)) {
+            try {
+                long offset = Long.parseLong(lastEventID.substring(prefix.length()));
+                if (offset >= -1 && offset < head) {
+                    return offset + 1;
+                }
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        return -1;
+    }
+
+    private String id(long offset) {
+        return Long.toHexString(state.getEpoch()) + "-" + offset;
+    }
+
+    private int slot(long offset) {
+        return (int) (offset % ring.length());
+    }
+
+    private final class Subscriber {
+        private final SseEventSink sink;
+        private final Sse sse;
+        private final Predicate<WorkflowEvent> filter;
+        // at most one drain runs at a time; it owns the cursor
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private long cursor;
+
+        Subscriber(SseEventSink sink, Sse sse, Predicate<WorkflowEvent> filter, long cursor) {
+            this.sink = sink;
+            this.sse = sse;
+            this.filter = filter;
+            this.cursor = cursor;
+        }
+
+        void wake() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    close(); // shutting down
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                do {
+                    while (cursor < head) {
+                        next();
+                    }
+                    scheduled.set(false);
+                } while (cursor < head && scheduled.compareAndSet(false, true));
+            } catch (RuntimeException e) {
+                close(); // the client went away
+            }
+        }
+
+        private void next() {
+            var change = cursor < 0 ? null : ring.get(slot(cursor));
+            if (change == null || change.offset() != cursor) {
+                // overwritten before this client got to it
+                cursor = head;
+                send(sse.newEventBuilder()
+                        .id(id(cursor - 1))
+                        .name("RESET")
+                        .data("Events were missed, reload the data")
+                        .build());
+                return;
+            }
+            cursor++;
+            if (filter.test(change.event())) {
+                send(sse.newEventBuilder()
+                        .id(id(change.offset()))
+                        .name(change.event().kind().name())
+                        .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                        .data(WorkflowEvent.class, change.event())
+                        .build());
+            }
+        }
+
+        // One event in flight per client: the next is only written once this one is out
+        private void send(OutboundSseEvent event) {
+            if (sink.isClosed()) {
+                throw new IllegalStateException("Subscriber is gone!");
+            }
+            sink.send(event).toCompletableFuture().join();
+        }
+
+        void close() {
+            subscribers.remove(this);
+            try {
+                sink.close();
+            } catch (RuntimeException e) {
+                // already closed by the client
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.EntityType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a resource method whose answer, in a sharded service, is made of the answers of all shards: ShardRouter
+// sends the request to each and merges what comes back as the method's Merge says.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Gather {
+
+    enum Merge {
+        // a page of a getAll* list: UUID order, honoring cursor and limit
+        PAGE,
+        // a list in UUID order
+        LIST,
+        // /advertisements/filter: UUID order, or nearest first with near
+        FILTER,
+        // facet counts, summed
+        FACETS,
+        // best-first search results, taken in turns from each shard
+        RANKED,
+        // the first shard that knows the answer
+        FIRST,
+        // run everywhere, answer as this shard did
+        ALL
+    }
+
+    Merge value();
+
+    // the entities in a PAGE, LIST or RANKED answer
+    EntityType type() default EntityType.ADVERTISEMENT;
+}
@@ -1,6 +1,7 @@
 package ch.unil.furrybuddy.rest;
 
 import ch.unil.furrybuddy.domain.ExceptionDescription;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.ext.ExceptionMapper;
 import jakarta.ws.rs.ext.Provider;
@@ -13,6 +14,10 @@ public class GlobalExceptionMapper implements ExceptionMapper<Exception> {
 
     @Override
     public Response toResponse(Exception exception) {
+        // 401, 403, 404... thrown on purpose keep their status
+        if (exception instanceof WebApplicationException web) {
+            return web.getResponse();
+        }
         log.severe("Exception caught: " + exception.getMessage());
 
         ExceptionDescription description = new ExceptionDescription(
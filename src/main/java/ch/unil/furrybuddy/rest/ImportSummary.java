@@ -0,0 +1,7 @@
+package ch.unil.furrybuddy.rest;
+
+import java.util.List;
+
+// Result of an NDJSON import: lines read, records added and rejected, the first rejections ("line N: reason")
+public record ImportSummary(long lines, long imported, long rejected, List<String> errors, long millis) {
+}
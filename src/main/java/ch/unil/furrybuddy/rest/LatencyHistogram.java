@@ -0,0 +1,83 @@
+package ch.unil.furrybuddy.rest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of microseconds in the style of HdrHistogram: values below 64 get a bucket each, above
+// that every power of two is split into 32 buckets, so a bucket is never wider than ~3% of its values.
+// Recording is one array increment and two adders: no locks and no allocation.
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^36 us (about 19 hours); anything longer lands in the last bucket
+    private static final int BUCKETS = 32 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(Math.min(BUCKETS - 1, indexOf(value)));
+        count.increment();
+        sum.add(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long sumMicros() {
+        return sum.sum();
+    }
+
+    // Number of recorded values <= micros, at bucket resolution
+    long countAtOrBelow(long micros) {
+        int last = Math.min(BUCKETS - 1, indexOf(micros));
+        long total = 0;
+        for (int i = 0; i <= last; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // Upper bound of the bucket holding the given quantile, 0 when nothing was recorded
+    long valueAtQuantile(double quantile) {
+        long total = 0;
+        var snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
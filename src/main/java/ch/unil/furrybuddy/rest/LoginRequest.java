@@ -0,0 +1,32 @@
+package ch.unil.furrybuddy.rest;
+
+// Body of POST /service/authenticate: {"email": ..., "password": ..., "role": "petOwner" | "adopter"}
+public class LoginRequest {
+    private String email;
+    private String password;
+    private String role;
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+}
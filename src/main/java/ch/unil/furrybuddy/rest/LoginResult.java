@@ -0,0 +1,7 @@
+package ch.unil.furrybuddy.rest;
+
+import java.util.UUID;
+
+// A successful login: the user and a signed session token valid until expiresAt (epoch seconds)
+public record LoginResult(UUID userID, String token, long expiresAt) {
+}
@@ -0,0 +1,50 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.ext.Provider;
+
+// Times every request from after matching to the response. Exceptions come through as the mapped
+// response, so they are counted under their endpoint with the mapper's status. Runs before AuthenticationFilter
+// and AdmissionFilter, so the requests they refuse (401, 429, 503) are counted under their endpoint too.
+@Provider
+@Priority(Priorities.AUTHENTICATION - 100)
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String STARTED = MetricsFilter.class.getName() + ".started";
+    private static final String ENDPOINT = MetricsFilter.class.getName() + ".endpoint";
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        var endpoint = metrics.endpoint(resourceInfo.getResourceMethod());
+        endpoint.started();
+        request.setProperty(ENDPOINT, endpoint);
+        request.setProperty(STARTED, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        // no start time means no resource matched, so no request filter ran
+        if (!(request.getProperty(STARTED) instanceof Long started)) {
+            var endpoint = metrics.endpoint(null);
+            endpoint.started();
+            endpoint.finished(0, response.getStatus());
+            return;
+        }
+        var endpoint = (RequestMetrics.Endpoint) request.getProperty(ENDPOINT);
+        endpoint.finished((System.nanoTime() - started) / 1000, response.getStatus());
+    }
+}
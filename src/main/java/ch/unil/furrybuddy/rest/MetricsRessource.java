@@ -0,0 +1,19 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+
+@Path("/metrics")
+public class MetricsRessource {
+    @Inject
+    private RequestMetrics metrics;
+
+    // Prometheus text exposition format 0.0.4
+    @GET
+    @Produces("text/plain; version=0.0.4")
+    public String scrape() {
+        return metrics.scrape();
+    }
+}
@@ -0,0 +1,171 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// Streaming import of one entity per NDJSON line. The request thread parses and validates; an applier thread
+// adds the valid records to ApplicationState in batches. The queue between them holds at most QUEUED_BATCHES,
+// so when the state falls behind the parser blocks and stops reading the request body: memory stays the same
+// whatever the size of the upload.
+final class NdjsonImport<T> {
+
+    private static final Logger log = Logger.getLogger(NdjsonImport.class.getName());
+
+    static final int BATCH = 1000;
+    static final int QUEUED_BATCHES = 4;
+    static final int MAX_ERRORS = 100;
+    private static final int PROGRESS_EVERY = 100_000;
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+    private static final ExecutorService APPLIERS = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "furrybuddy-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record Line<T>(long number, T entity) {
+    }
+
+    // an empty batch marks the end of the input
+    private final BlockingQueue<List<Line<T>>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final List<String> errors = new ArrayList<>();
+
+    private final ApplicationState state;
+    private final Class<T> type;
+    private final EntityType entityType;
+    private final Consumer<T> validate;
+    private final Function<T, ?> add;
+
+    private NdjsonImport(ApplicationState state, Class<T> type, Consumer<T> validate, Function<T, ?> add) {
+        this.state = state;
+        this.type = type;
+        this.entityType = EntityType.of(type);
+        this.validate = validate;
+        this.add = add;
+    }
+
+    // validate throws IllegalArgumentException for a record to reject; add stores a valid one. A record whose ID
+    // another shard owns is rejected as well.
+    static <T> ImportSummary run(ApplicationState state, InputStream body, Class<T> type, Consumer<T> validate,
+                                 Function<T, ?> add) {
+        return new NdjsonImport<>(state, type, validate, add).run(body);
+    }
+
+    private ImportSummary run(InputStream body) {
+        long start = System.nanoTime();
+        var applier = APPLIERS.submit(this::applyLoop);
+        long lines = 0;
+        try (var reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            var batch = new ArrayList<Line<T>>(BATCH);
+            String text;
+            while ((text = reader.readLine()) != null) {
+                lines++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                try {
+                    T entity = JSONB.fromJson(text, type);
+                    if (entity == null) {
+                        throw new IllegalArgumentException("Empty record!");
+                    }
+                    validate.accept(entity);
+                    state.requireLocal(entityType.idOf(entity));
+                    batch.add(new Line<>(lines, entity));
+                } catch (RuntimeException e) {
+                    reject(lines, e);
+                }
+                if (batch.size() == BATCH) {
+                    hand(batch, applier);
+                    batch = new ArrayList<>(BATCH);
+                }
+                if (lines % PROGRESS_EVERY == 0) {
+                    log.info("Import of " + type.getSimpleName() + ": " + lines + " lines read, "
+                            + imported.get() + " imported, " + rejected.get() + " rejected");
+                }
+            }
+            if (!batch.isEmpty()) {
+                hand(batch, applier);
+            }
+            hand(List.of(), applier);
+            applier.get();
+        } catch (IOException e) {
+            applier.cancel(true);
+            throw new IllegalArgumentException("Could not read the request body!", e);
+        } catch (InterruptedException e) {
+            applier.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted!", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Import failed after " + imported.get() + " records!", e.getCause());
+        }
+        synchronized (errors) {
+            return new ImportSummary(lines, imported.get(), rejected.get(), List.copyOf(errors),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    // Blocks while the queue is full, unless the applier died, in which case waiting would be forever
+    private void hand(List<Line<T>> batch, Future<?> applier) throws InterruptedException, ExecutionException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (applier.isDone()) {
+                applier.get();
+                throw new IllegalStateException("Import applier stopped early!");
+            }
+        }
+    }
+
+    private Void applyLoop() throws InterruptedException {
+        while (true) {
+            var batch = queue.take();
+            if (batch.isEmpty()) {
+                return null;
+            }
+            var changes = new ArrayList<Supplier<Object>>(batch.size());
+            for (var line : batch) {
+                changes.add(() -> add.apply(line.entity()));
+            }
+            var outcomes = state.applyBatch(changes);
+            for (int i = 0; i < outcomes.size(); i++) {
+                var error = outcomes.get(i).error();
+                if (error == null) {
+                    imported.incrementAndGet();
+                } else {
+                    reject(batch.get(i).number(), error);
+                }
+            }
+        }
+    }
+
+    private void reject(long line, RuntimeException error) {
+        rejected.incrementAndGet();
+        synchronized (errors) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add("line " + line + ": " + error.getMessage());
+            }
+        }
+    }
+}
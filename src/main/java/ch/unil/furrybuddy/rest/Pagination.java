@@ -0,0 +1,88 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+// Shared handling of ?cursor=&limit=&stream= for the getAll* endpoints.
+// The cursor is the ID of the last entity the client received; pages follow the UUID order of the state maps.
+// With a limit, the resources only ask ApplicationState for the entities of the page (see fetchCount).
+final class Pagination {
+
+    static final int MAX_LIMIT = 1000;
+    static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+
+    private Pagination() {
+    }
+
+    // How many entities to read for a page: one more than it holds tells whether another one follows
+    static int fetchCount(int limit) {
+        checkLimit(limit);
+        return limit + 1;
+    }
+
+    static <T> Response list(NavigableMap<UUID, T> all, UUID cursor, Integer limit, boolean stream) {
+        if (limit != null) {
+            checkLimit(limit);
+        }
+        var range = cursor == null ? all : all.tailMap(cursor, false);
+        if (limit == null) {
+            return stream ? Response.ok(streamed(range), MediaType.APPLICATION_JSON).build()
+                    : Response.ok(new ArrayList<>(range.values())).build();
+        }
+
+        // only the IDs are walked to find where the page ends, so a streamed page gets its cursor before its body
+        UUID last = null;
+        int count = 0;
+        for (var id : range.keySet()) {
+            if (count == limit) {
+                break;
+            }
+            last = id;
+            count++;
+        }
+        NavigableMap<UUID, T> page = last == null ? new TreeMap<>() : range.headMap(last, true);
+        var response = stream ? Response.ok(streamed(page), MediaType.APPLICATION_JSON)
+                : Response.ok(new ArrayList<>(page.values()));
+        if (last != null && range.higherKey(last) != null) {
+            response.header(NEXT_CURSOR, last);
+        }
+        return response.build();
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT + "!");
+        }
+    }
+
+    // Serializes one entity at a time while walking the map, so the response is never held in memory as a whole
+    private static <T> StreamingOutput streamed(NavigableMap<UUID, T> range) {
+        return output -> {
+            var writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.write('[');
+            boolean first = true;
+            for (var entity : range.values()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.write(JSONB.toJson(entity));
+                first = false;
+            }
+            writer.write(']');
+            writer.flush();
+        };
+    }
+}
@@ -1,53 +1,85 @@
 package ch.unil.furrybuddy.rest;
 
 import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
 import ch.unil.furrybuddy.domain.PetOwner;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 @Path("/petOwners")
 public class PetOwnerRessource {
     @Inject
     private ApplicationState state;
 
+    @Inject
+    private ResponseCache responses;
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<PetOwner> getAllPetOwners(){
-        return new ArrayList<>(state.getAllPetOwners().values());
+    @Gather(value = Gather.Merge.PAGE, type = EntityType.PET_OWNER)
+    public CompletionStage<Response> getAllPetOwners(@QueryParam("cursor") UUID cursor,
+                                                     @QueryParam("limit") Integer limit,
+                                                     @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                                     @Context Request request){
+        return RequestExecutor.supply(() -> Versions.list(request, state, EntityType.PET_OWNER,
+                () -> Pagination.list(limit == null ? state.getAllPetOwners()
+                        : state.getPetOwnersAfter(cursor, Pagination.fetchCount(limit)), cursor, limit, stream)));
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public PetOwner getPetOwner(@PathParam("id") UUID petOwnerID){
-        return state.getPetOwner(petOwnerID);
+    @ShardKey("id")
+    public CompletionStage<Response> getPetOwner(@PathParam("id") UUID petOwnerID, @Context Request request){
+        return RequestExecutor.supply(() -> Versions.get(request, state, responses, EntityType.PET_OWNER, petOwnerID,
+                () -> state.getPetOwner(petOwnerID)));
     }
 
     @PUT
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean setPetOwner(@PathParam("id") UUID petOwnerID, PetOwner petOwner){
-        return state.setPetOwner(petOwnerID, petOwner);
+    @ShardKey("id")
+    public CompletionStage<Response> setPetOwner(@PathParam("id") UUID petOwnerID, PetOwner petOwner,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch){
+        return RequestExecutor.supply(() -> Versions.update(state, ifMatch,
+                expectedVersion -> state.setPetOwner(petOwnerID, petOwner, expectedVersion)));
     }
 
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public PetOwner addPetOwner(PetOwner petOwner){
-        state.addPetOwner(petOwner);
-        return petOwner;
+    @ShardKey(body = "userID")
+    public CompletionStage<PetOwner> addPetOwner(PetOwner petOwner){
+        return RequestExecutor.supply(() -> {
+            state.addPetOwner(petOwner);
+            return petOwner;
+        });
     }
 
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean deletePetOwner(@PathParam("id") UUID petOwnerID){
-        return state.removePetOwner(petOwnerID);
+    @ShardKey("id")
+    public CompletionStage<Boolean> deletePetOwner(@PathParam("id") UUID petOwnerID){
+        return RequestExecutor.supply(() -> state.removePetOwner(petOwnerID));
+    }
+
+    // IMPORT: one pet owner per NDJSON line, checked and its password hashed before it is queued
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    @Path("/import")
+    public ImportSummary importPetOwners(InputStream body){
+        return NdjsonImport.run(state, body, PetOwner.class, state::prepare, state::addPetOwner);
     }
 }
@@ -3,52 +3,132 @@ package ch.unil.furrybuddy.rest;
 import ch.unil.furrybuddy.domain.*;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 @Path("/pets")
 public class PetRessource {
 
+    private static final Type OPERATION_TYPE = new BulkOperation<Pet>() {}.getClass().getGenericSuperclass();
+
     @Inject
     private ApplicationState state;
 
+    @Inject
+    private ResponseCache responses;
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Pet> getAllPets(){
-        return new ArrayList<>(state.getAllPets().values());
+    @Gather(value = Gather.Merge.PAGE, type = EntityType.PET)
+    public CompletionStage<Response> getAllPets(@QueryParam("cursor") UUID cursor,
+                                                @QueryParam("limit") Integer limit,
+                                                @QueryParam("stream") @DefaultValue("false") boolean stream,
+                                                @Context Request request){
+        return RequestExecutor.supply(() -> Versions.list(request, state, EntityType.PET,
+                () -> Pagination.list(limit == null ? state.getAllPets()
+                        : state.getPetsAfter(cursor, Pagination.fetchCount(limit)), cursor, limit, stream)));
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public Pet getPet(@PathParam("id") UUID petID){
-        return state.getPet(petID);
+    @ShardKey("id")
+    public CompletionStage<Response> getPet(@PathParam("id") UUID petID, @Context Request request){
+        return RequestExecutor.supply(() -> Versions.get(request, state, responses, EntityType.PET, petID,
+                () -> state.getPet(petID)));
     }
 
     @PUT
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean setPet(@PathParam("id") UUID petID, Pet pet){
-        return state.setPet(petID, pet);
+    @ShardKey("id")
+    public CompletionStage<Response> setPet(@PathParam("id") UUID petID, Pet pet,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch){
+        return RequestExecutor.supply(() -> Versions.update(state, ifMatch,
+                expectedVersion -> state.setPet(petID, pet, expectedVersion)));
     }
 
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    public Pet addPet(Pet pet){
-        state.addPet(pet);
-        return pet;
+    @ShardKey(body = "petID")
+    public CompletionStage<Pet> addPet(Pet pet){
+        return RequestExecutor.supply(() -> {
+            state.addPet(pet);
+            return pet;
+        });
     }
 
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
-    public boolean deletePet(@PathParam("id") UUID petID){
-        return state.removePet(petID);
+    @ShardKey("id")
+    public CompletionStage<Boolean> deletePet(@PathParam("id") UUID petID){
+        return RequestExecutor.supply(() -> state.removePet(petID));
+    }
+
+    // BULK: a JSON array or NDJSON of {"op", "id", "entity"}
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/bulk")
+    public List<BulkResult> bulkPets(List<BulkOperation<Pet>> operations){
+        return Bulk.apply(state, operations, bulkTarget());
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    @Path("/bulk")
+    public List<BulkResult> bulkPetsNdjson(InputStream body){
+        return Bulk.applyNdjson(state, body, OPERATION_TYPE, bulkTarget());
+    }
+
+    // IMPORT: one pet per NDJSON line, streamed; see NdjsonImport
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(Bulk.NDJSON)
+    @Path("/import")
+    public ImportSummary importPets(InputStream body){
+        return NdjsonImport.run(state, body, Pet.class, PetRessource::validate, state::addPet);
+    }
+
+    private static void validate(Pet pet) {
+        if (pet.getName() == null || pet.getName().isBlank()) {
+            throw new IllegalArgumentException("Pet must have a name!");
+        }
+        if (pet.getSpecies() == null || pet.getSpecies().isBlank()) {
+            throw new IllegalArgumentException("Pet must have a species!");
+        }
+    }
+
+    private Bulk.Target<Pet> bulkTarget() {
+        return new Bulk.Target<>() {
+            @Override
+            public UUID create(UUID id, Pet pet) {
+                return (id == null ? state.addPet(pet) : state.addPet(id, pet)).getPetID();
+            }
+
+            @Override
+            public boolean update(UUID id, Pet pet) {
+                return state.setPet(id, pet);
+            }
+
+            @Override
+            public boolean delete(UUID id) {
+                return state.removePet(id);
+            }
+        };
     }
 
 }
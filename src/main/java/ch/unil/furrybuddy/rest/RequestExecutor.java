@@ -0,0 +1,84 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.enterprise.concurrent.ContextService;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// Where the resource methods run. By default that is the container's request thread, as before.
+// With -Dfurrybuddy.virtualThreads=true every call gets its own virtual thread and the request thread is
+// released as soon as the call is handed off, so calls waiting on a journal fsync or the database no longer
+// hold a platform thread from the HTTP pool. JAX-RS resumes the response when the stage completes.
+final class RequestExecutor {
+
+    static final String VIRTUAL_THREADS_PROPERTY = "furrybuddy.virtualThreads";
+
+    private static final ExecutorService VIRTUAL = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)
+            ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("furrybuddy-request-", 0).factory())
+            : null;
+
+    // Gives the virtual threads the application's naming context and class loader, which the JPA repository
+    // needs to find its persistence unit and transaction manager
+    private static final ContextService CONTEXT = VIRTUAL == null ? null : lookupContextService();
+
+    private RequestExecutor() {
+    }
+
+    static boolean isVirtual() {
+        return VIRTUAL != null;
+    }
+
+    static <T> CompletionStage<T> supply(Supplier<T> call) {
+        return fork(call);
+    }
+
+    // Starts one step of a request that does not depend on the others, so independent lookups overlap in
+    // virtual mode. Inline, the steps simply run one after the other.
+    static <T> CompletableFuture<T> fork(Supplier<T> call) {
+        if (VIRTUAL == null) {
+            // exceptions are thrown straight to JAX-RS, exactly like a synchronous resource method
+            return CompletableFuture.completedFuture(call.get());
+        }
+        var result = new CompletableFuture<T>();
+        Runnable task = () -> {
+            try {
+                result.complete(call.get());
+            } catch (Throwable e) {
+                // completed with the exception itself, not a CompletionException, so the mappers see the original
+                result.completeExceptionally(e);
+            }
+        };
+        VIRTUAL.execute(CONTEXT == null ? task : CONTEXT.contextualRunnable(task));
+        return result;
+    }
+
+    // What a composed request hands back to JAX-RS: dependent stages wrap failures in a CompletionException,
+    // which would otherwise reach GlobalExceptionMapper instead of the exception a step actually threw
+    static <T> CompletionStage<T> respond(CompletionStage<T> stage) {
+        var response = new CompletableFuture<T>();
+        stage.whenComplete((value, error) -> {
+            if (error == null) {
+                response.complete(value);
+            } else {
+                response.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error);
+            }
+        });
+        return response;
+    }
+
+    private static ContextService lookupContextService() {
+        try {
+            return InitialContext.doLookup("java:comp/DefaultContextService");
+        } catch (NamingException e) {
+            return null; // outside a container, e.g. in the benchmarks
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ch.unil.furrybuddy.rest;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.Path;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-endpoint request metrics, filled by MetricsFilter and rendered for /api/metrics in the Prometheus text format.
+// An endpoint is created once per resource method; after that a request only touches adders and the histogram.
+@ApplicationScoped
+public class RequestMetrics {
+
+    static final String UNMATCHED = "unmatched";
+
+    // bucket bounds of the exported histogram, in seconds; the recording histogram is much finer
+    private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    static final class Endpoint {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder clientErrors = new LongAdder();
+        final LongAdder serverErrors = new LongAdder();
+        final AtomicLong inFlight = new AtomicLong();
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        void started() {
+            inFlight.incrementAndGet();
+        }
+
+        void finished(long micros, int status) {
+            inFlight.decrementAndGet();
+            latency.record(micros);
+            if (status >= 500) {
+                serverErrors.increment();
+            } else if (status >= 400) {
+                clientErrors.increment();
+            }
+        }
+    }
+
+    private final Map<Method, Endpoint> byMethod = new ConcurrentHashMap<>();
+    private final Endpoint unmatched = new Endpoint(UNMATCHED);
+
+    Endpoint endpoint(Method method) {
+        if (method == null) {
+            return unmatched;
+        }
+        // get first: computeIfAbsent would allocate its lambda on every call
+        var endpoint = byMethod.get(method);
+        return endpoint != null ? endpoint : byMethod.computeIfAbsent(method, m -> new Endpoint(nameOf(m)));
+    }
+
+    // "GET /advertisements/{id}", as declared on the resource
+    static String nameOf(Method method) {
+        String verb = "ANY";
+        for (var annotation : method.getAnnotations()) {
+            var httpMethod = annotation.annotationType().getAnnotation(HttpMethod.class);
+            if (httpMethod != null) {
+                verb = httpMethod.value();
+            }
+        }
+        var path = new StringBuilder();
+        append(path, method.getDeclaringClass().getAnnotation(Path.class));
+        append(path, method.getAnnotation(Path.class));
+        return verb + " " + (path.length() == 0 ? "/" : path);
+    }
+
+    private static void append(StringBuilder path, Path annotation) {
+        if (annotation == null) {
+            return;
+        }
+        var segment = annotation.value();
+        if (!segment.startsWith("/")) {
+            path.append('/');
+        }
+        path.append(segment.endsWith("/") ? segment.substring(0, segment.length() - 1) : segment);
+    }
+
+    public String scrape() {
+        // sorted so consecutive scrapes list the endpoints in the same order
+        var endpoints = new TreeMap<String, Endpoint>();
+        byMethod.values().forEach(endpoint -> endpoints.put(endpoint.name, endpoint));
+        endpoints.put(unmatched.name, unmatched);
+
+        var out = new StringBuilder();
+        out.append("# HELP furrybuddy_http_requests_total Requests handled, per endpoint.\n");
+        out.append("# TYPE furrybuddy_http_requests_total counter\n");
+        endpoints.values().forEach(e -> sample(out, "furrybuddy_http_requests_total", e, null, e.latency.count()));
+
+        out.append("# HELP furrybuddy_http_errors_total Requests answered with a 4xx or 5xx status, per endpoint.\n");
+        out.append("# TYPE furrybuddy_http_errors_total counter\n");
+        endpoints.values().forEach(e -> {
+            sample(out, "furrybuddy_http_errors_total", e, "class=\"4xx\"", e.clientErrors.sum());
+            sample(out, "furrybuddy_http_errors_total", e, "class=\"5xx\"", e.serverErrors.sum());
+        });
+
+        out.append("# HELP furrybuddy_http_requests_in_flight Requests being handled right now, per endpoint.\n");
+        out.append("# TYPE furrybuddy_http_requests_in_flight gauge\n");
+        endpoints.values().forEach(e -> sample(out, "furrybuddy_http_requests_in_flight", e, null, e.inFlight.get()));
+
+        out.append("# HELP furrybuddy_http_request_duration_seconds Request latency, per endpoint.\n");
+        out.append("# TYPE furrybuddy_http_request_duration_seconds histogram\n");
+        endpoints.values().forEach(e -> {
+            for (double bound : BUCKETS) {
+                long count = e.latency.countAtOrBelow((long) (bound * 1_000_000));
+                sample(out, "furrybuddy_http_request_duration_seconds_bucket", e, "le=\"" + format(bound) + "\"", count);
+            }
+            long count = e.latency.count();
+            sample(out, "furrybuddy_http_request_duration_seconds_bucket", e, "le=\"+Inf\"", count);
+            sample(out, "furrybuddy_http_request_duration_seconds_sum", e, null, e.latency.sumMicros() / 1e6);
+            sample(out, "furrybuddy_http_request_duration_seconds_count", e, null, count);
+        });
+
+        out.append("# HELP furrybuddy_http_request_duration_quantile_seconds Request latency quantiles since startup, per endpoint.\n");
+        out.append("# TYPE furrybuddy_http_request_duration_quantile_seconds gauge\n");
+        endpoints.values().forEach(e -> {
+            for (double quantile : QUANTILES) {
+                sample(out, "furrybuddy_http_request_duration_quantile_seconds", e,
+                        "quantile=\"" + format(quantile) + "\"", e.latency.valueAtQuantile(quantile) / 1e6);
+            }
+        });
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String metric, Endpoint endpoint, String label, Number value) {
+        out.append(metric).append("{endpoint=\"").append(escape(endpoint.name)).append('"');
+        if (label != null) {
+            out.append(',').append(label);
+        }
+        out.append("} ").append(value instanceof Double d ? format(d) : value.toString()).append('\n');
+    }
+
+    private static String format(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
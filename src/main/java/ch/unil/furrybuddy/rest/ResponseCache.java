@@ -0,0 +1,85 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.EntityCache;
+import ch.unil.furrybuddy.domain.EntityType;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Encoded JSON of the hot read responses, so a repeated read skips the object graph and JSON-B altogether.
+// An entity is cached under its ID and a filter result under its normalized query, each together with the
+// ApplicationState version it was encoded at. Every change stamps a new version, so an entry stops matching the
+// moment what it shows changes and nothing has to be evicted by hand. Responses over MAX_BYTES_PROPERTY are
+// encoded but not kept.
+@ApplicationScoped
+public class ResponseCache {
+
+    public static final String SIZE_PROPERTY = "furrybuddy.responseCache.size";
+    public static final String MAX_BYTES_PROPERTY = "furrybuddy.responseCache.maxBytes";
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+
+    // key tells apart the entity types and, for queries, the rare UUID collision of two different queries
+    private record Encoded(String key, long version, byte[] json) {
+    }
+
+    private final int size = Integer.getInteger(SIZE_PROPERTY, EntityCache.DEFAULT_SIZE);
+    private final int maxBytes = Integer.getInteger(MAX_BYTES_PROPERTY, 64 * 1024);
+    private final Store entities = new Store(size);
+    private final Store queries = new Store(Math.max(1, size / 10));
+
+    // The JSON of entity at version, which the caller read before the entity
+    byte[] entity(EntityType type, UUID id, long version, Object entity) {
+        return entities.lookup(id, type.name(), version, () -> entity);
+    }
+
+    // The JSON of a query result over a collection at version; result is only called on a miss
+    byte[] query(String query, long version, Supplier<?> result) {
+        return queries.lookup(UUID.nameUUIDFromBytes(query.getBytes(StandardCharsets.UTF_8)), query, version, result);
+    }
+
+    Map<String, EntityCache.Stats> stats() {
+        var stats = new LinkedHashMap<String, EntityCache.Stats>();
+        stats.put("entities", entities.stats());
+        stats.put("queries", queries.stats());
+        return stats;
+    }
+
+    private final class Store {
+        private final EntityCache<Encoded> cache;
+        // an entry of an older version counts as a miss, unlike in the cache's own stats
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        Store(int capacity) {
+            cache = new EntityCache<>(capacity);
+        }
+
+        byte[] lookup(UUID id, String key, long version, Supplier<?> value) {
+            var cached = cache.get(id);
+            if (cached != null && cached.version() == version && cached.key().equals(key)) {
+                hits.increment();
+                return cached.json();
+            }
+            misses.increment();
+            var json = JSONB.toJson(value.get()).getBytes(StandardCharsets.UTF_8);
+            // a slow reader must not put back an older version over a newer one
+            if (json.length <= maxBytes && (cached == null || cached.version() <= version)) {
+                cache.put(id, new Encoded(key, version, json));
+            }
+            return json;
+        }
+
+        EntityCache.Stats stats() {
+            var stats = cache.stats();
+            return new EntityCache.Stats(hits.sum(), misses.sum(), stats.evictions(), stats.size(), stats.capacity());
+        }
+    }
+}
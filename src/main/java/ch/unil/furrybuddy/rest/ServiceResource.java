@@ -1,63 +1,143 @@
 package ch.unil.furrybuddy.rest;
 
 import ch.unil.furrybuddy.domain.AdoptionRequest;
+import ch.unil.furrybuddy.domain.AdvertisementFacets;
 import ch.unil.furrybuddy.domain.Advertisement;
 import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.CompatibilityMatcher;
+import ch.unil.furrybuddy.domain.EntityCache;
+import ch.unil.furrybuddy.domain.EntityType;
 import ch.unil.furrybuddy.domain.Pet;
+import ch.unil.furrybuddy.domain.PetOwner;
+import ch.unil.furrybuddy.domain.User;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 @Path("/service")
 public class ServiceResource {
+    private static final int NEAREST_DEFAULT = 20;
+    static final String SEARCH_LIMIT = "20";
+
     @Inject
     private ApplicationState state;
 
+    @Inject
+    private Event<WorkflowEvent> events;
+
+    @Inject
+    private Authenticator authenticator;
+
+    @Inject
+    private ChangeFeed changeFeed;
+
+    @Inject
+    private ResponseCache responses;
+
+    @Inject
+    private AdmissionControl admission;
+
     // RESET SERVICE
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Path("/reset")
+    @Gather(Gather.Merge.ALL)
     public Response reset() {
-        state.init();
+        state.reset();
         return Response.ok("Furry buddy Service was reset at " + LocalDateTime.now()).build();
     }
 
+    // CACHE METRICS (empty unless the service runs with -Dfurrybuddy.storage=jpa)
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/cacheStats")
+    public Map<EntityType, EntityCache.Stats> cacheStats() {
+        return state.getCacheStats();
+    }
+
+    // ADMISSION CONTROL: requests refused so far and the current concurrency limit of each endpoint
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/admissionStats")
+    public AdmissionControl.Stats admissionStats() {
+        return admission.stats();
+    }
+
+    // ENCODED RESPONSE CACHE METRICS
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/responseCacheStats")
+    public Map<String, EntityCache.Stats> responseCacheStats() {
+        return responses.stats();
+    }
+
     // CREATE AD
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{petOwner}/createAdvertisement")
-    public Advertisement createAdvertisement(Advertisement advertisement, @PathParam("petOwner") UUID petOwnerID) {
-        Pet pet = advertisement.getPet();
-
-        // Check if the Pet exists
-        if (pet.getPetID() == null || !state.hasPet(pet.getPetID())) {
-            // Generate a new ID for the Pet
-            pet.setPetID(UUID.randomUUID());
-            state.addPet(pet.getPetID(), pet); // Assuming there's a method to add a Pet to the state
-            System.out.println("New Pet created with ID: " + pet.getPetID());
-        }
+    @ShardKey("petOwner")
+    public CompletionStage<Advertisement> createAdvertisement(Advertisement advertisement, @PathParam("petOwner") UUID petOwnerID,
+                                                              @Context SecurityContext security) {
+        caller(security, User.Role.PET_OWNER, petOwnerID);
+        // the pet and the owner are independent lookups
+        var pet = RequestExecutor.fork(() -> {
+            Pet newPet = advertisement.getPet();
+
+            // Check if the Pet exists
+            if (newPet.getPetID() == null || !state.hasPet(newPet.getPetID())) {
+                // Generate a new ID for the Pet
+                newPet.setPetID(state.newID());
+                state.addPet(newPet.getPetID(), newPet); // Assuming there's a method to add a Pet to the state
+            }
+            return newPet;
+        });
+        var petOwner = RequestExecutor.fork(() -> state.getPetOwner(petOwnerID));
 
         // Create the Advertisement
-        Advertisement newAd = state.getPetOwner(petOwnerID).createAdvertisement(pet);
-        state.addAdvertisement(newAd.getAdvertisementID(), newAd);
-        state.addAdvertisement(newAd);
-        return newAd;
+        return RequestExecutor.respond(pet.thenCombine(petOwner, (newPet, owner) -> {
+            Advertisement newAd = owner.createAdvertisement(newPet);
+            // keeps the ad on its owner's shard, where their pending requests are looked up
+            if (!state.isLocal(newAd.getAdvertisementID())) {
+                newAd.setAdvertisementID(state.newID());
+            }
+            state.addAdvertisement(newAd.getAdvertisementID(), newAd);
+            return newAd;
+        }));
     }
 
     // DELETE AD
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{petOwner}/deleteAdvertisement/{adID}")
-    public boolean deleteAdvertisement(@PathParam("petOwner") UUID petOwnerID, @PathParam("adID") UUID advertisementID) {
-        var ad = state.getAdvertisement(advertisementID);
-        state.getPetOwner(petOwnerID).deleteAdvertisement(ad);
-        return state.removeAdvertisement(advertisementID);
+    @ShardKey("adID")
+    public CompletionStage<Boolean> deleteAdvertisement(@PathParam("petOwner") UUID petOwnerID, @PathParam("adID") UUID advertisementID,
+                                                        @Context SecurityContext security) {
+        var caller = caller(security, User.Role.PET_OWNER, petOwnerID);
+        return RequestExecutor.supply(() -> {
+            var ad = state.getAdvertisement(advertisementID);
+            checkOwner(caller, ad.getPetOwner());
+            state.getPetOwner(petOwnerID).deleteAdvertisement(ad);
+            return state.removeAdvertisement(advertisementID);
+        });
     }
 
     //CREATE ADOPTION REQUEST
@@ -65,12 +145,21 @@ public class ServiceResource {
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{adopter}/createAdoptionRequest")
-    public AdoptionRequest createAdoptionRequest(AdoptionRequest adoptionRequest, @PathParam("adopter") UUID adopterID) {
-        var advertisement = state.getAdvertisement(adoptionRequest.getAdvertisement().getAdvertisementID());
-        AdoptionRequest newAdoptionRequest = state.getAdopter(adopterID).createAdoptionRequest(advertisement, adoptionRequest.getMessage());
-        state.addAdoptionRequest(newAdoptionRequest.getRequestID(), adoptionRequest);
-        state.addAdoptionRequest(newAdoptionRequest);
-        return newAdoptionRequest;
+    @ShardKey(body = {"advertisement", "advertisementID"})
+    public CompletionStage<AdoptionRequest> createAdoptionRequest(AdoptionRequest adoptionRequest, @PathParam("adopter") UUID adopterID,
+                                                                  @Context SecurityContext security) {
+        caller(security, User.Role.ADOPTER, adopterID);
+        var advertisement = RequestExecutor.fork(() -> state.getAdvertisement(adoptionRequest.getAdvertisement().getAdvertisementID()));
+        var adopter = RequestExecutor.fork(() -> state.getAdopter(adopterID));
+        return RequestExecutor.respond(advertisement.thenCombine(adopter, (ad, user) -> {
+            AdoptionRequest newAdoptionRequest = user.createAdoptionRequest(ad, adoptionRequest.getMessage());
+            // the request lives with its advertisement, which is on this shard
+            if (!state.isLocal(newAdoptionRequest.getRequestID())) {
+                newAdoptionRequest.setRequestID(state.newID());
+            }
+            state.addAdoptionRequest(newAdoptionRequest);
+            return newAdoptionRequest;
+        }));
     }
 
     // CANCEL ADOPTION REQUEST
@@ -78,10 +167,18 @@ public class ServiceResource {
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{adopter}/cancelAdoptionRequest/{adID}")
-    public AdoptionRequest deleteAdoptionRequest(@PathParam("adopter") UUID adopterID, @PathParam("adID") UUID adoptionRequestID) {
-        var adoptionRequest = state.getAdoptionRequest(adoptionRequestID);
-        state.getAdopter(adopterID).cancelAdoptionRequest(adoptionRequest);
-        return adoptionRequest;
+    @ShardKey("adID")
+    public CompletionStage<AdoptionRequest> deleteAdoptionRequest(@PathParam("adopter") UUID adopterID, @PathParam("adID") UUID adoptionRequestID,
+                                                                  @Context SecurityContext security) {
+        var caller = caller(security, User.Role.ADOPTER, adopterID);
+        return RequestExecutor.supply(() -> {
+            var adoptionRequest = state.getAdoptionRequest(adoptionRequestID);
+            checkOwner(caller, adoptionRequest.getAdopter());
+            state.getAdopter(adopterID).cancelAdoptionRequest(adoptionRequest);
+            state.closeAdoptionRequest(adoptionRequestID, adoptionRequest);
+            notify(WorkflowEvent.Kind.ADOPTION_REQUEST_CANCELLED, adoptionRequest);
+            return adoptionRequest;
+        });
     }
 
     //ACCEPT AR
@@ -89,48 +186,238 @@ public class ServiceResource {
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{petOwner}/acceptAdoptionRequest/{adoptionReqID}")
-    public boolean acceptRequest(@PathParam("petOwner") UUID petOwnerID, @PathParam("adoptionReqID") UUID adoptionRequestID) {
-        var request = state.getAdoptionRequest(adoptionRequestID);
+    @ShardKey("adoptionReqID")
+    public CompletionStage<Boolean> acceptRequest(@PathParam("petOwner") UUID petOwnerID, @PathParam("adoptionReqID") UUID adoptionRequestID,
+                                                  @Context SecurityContext security) {
+        var caller = caller(security, User.Role.PET_OWNER, petOwnerID);
+        var request = RequestExecutor.fork(() -> state.getAdoptionRequest(adoptionRequestID));
+        var petOwner = RequestExecutor.fork(() -> state.getPetOwner(petOwnerID));
+        return RequestExecutor.respond(request.thenCombine(petOwner, (adoptionRequest, owner) -> {
+            checkOwner(caller, adoptionRequest.getAdvertisement().getPetOwner());
+            return accept(adoptionRequest, owner);
+        }));
+    }
+
+    private boolean accept(AdoptionRequest request, PetOwner petOwner) {
         var advertisement = request.getAdvertisement();
-        state.getPetOwner(petOwnerID).acceptRequest(request);
+        petOwner.acceptRequest(request);
         state.setAdvertisement(advertisement.getAdvertisementID(), advertisement);
+        state.closeAdoptionRequest(request.getRequestID(), request);
+        notify(WorkflowEvent.Kind.ADOPTION_REQUEST_ACCEPTED, request);
         return true;
     }
 
+    private boolean reject(AdoptionRequest request, PetOwner petOwner) {
+        petOwner.rejectRequest(request);
+        state.closeAdoptionRequest(request.getRequestID(), request);
+        notify(WorkflowEvent.Kind.ADOPTION_REQUEST_REJECTED, request);
+        return true;
+    }
+
+    //ACCEPT AR AND REJECT THE OTHER PENDING REQUESTS FOR THE SAME AD
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/{petOwner}/acceptAdoptionRequest/{adoptionReqID}/rejectOthers")
+    @ShardKey("adoptionReqID")
+    public CompletionStage<List<AdoptionRequest>> acceptRequestAndRejectOthers(@PathParam("petOwner") UUID petOwnerID,
+                                                                               @PathParam("adoptionReqID") UUID adoptionRequestID,
+                                                                               @Context SecurityContext security) {
+        var caller = caller(security, User.Role.PET_OWNER, petOwnerID);
+        return RequestExecutor.supply(() -> {
+            var petOwner = state.getPetOwner(petOwnerID);
+            var request = state.getAdoptionRequest(adoptionRequestID);
+            checkOwner(caller, request.getAdvertisement().getPetOwner());
+            accept(request, petOwner);
+            var advertisementID = request.getAdvertisement().getAdvertisementID();
+            var rejected = new ArrayList<AdoptionRequest>();
+            for (var other : state.getAdoptionRequestsForAdvertisement(advertisementID)) {
+                if (!other.getRequestID().equals(adoptionRequestID) && state.isPendingAdoptionRequest(other.getRequestID())) {
+                    reject(other, petOwner);
+                    rejected.add(other);
+                }
+            }
+            return rejected;
+        });
+    }
+
     //ACCEPT AR
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/{petOwner}/rejectAdoptionRequest/{adoptionReqID}")
-    public boolean rejectAdoptionRequest(@PathParam("petOwner") UUID petOwnerID, @PathParam("adoptionReqID") UUID adoptionRequestID) {
-        var request = state.getAdoptionRequest(adoptionRequestID);
-        state.getPetOwner(petOwnerID).rejectRequest(request);
-        return true;
+    @ShardKey("adoptionReqID")
+    public CompletionStage<Boolean> rejectAdoptionRequest(@PathParam("petOwner") UUID petOwnerID, @PathParam("adoptionReqID") UUID adoptionRequestID,
+                                                          @Context SecurityContext security) {
+        var caller = caller(security, User.Role.PET_OWNER, petOwnerID);
+        var request = RequestExecutor.fork(() -> state.getAdoptionRequest(adoptionRequestID));
+        var petOwner = RequestExecutor.fork(() -> state.getPetOwner(petOwnerID));
+        return RequestExecutor.respond(request.thenCombine(petOwner, (adoptionRequest, owner) -> {
+            checkOwner(caller, adoptionRequest.getAdvertisement().getPetOwner());
+            return reject(adoptionRequest, owner);
+        }));
     }
 
-    @GET
+    // LOGIN: credentials in the body, never in the URL. 401 alike for an unknown user and a wrong password, 503 while
+    // too many logins are waiting for the password hashing pool
+    @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    @Path("/authenticate/{username}/{password}/{role}")
-    public UUID authenticate(@PathParam("username") String username, @PathParam("password") String password, @PathParam("role") String role) {
-        if (role.equals("petOwner")) {
-            return state.authenticate(username, password, true);
+    @Path("/authenticate")
+    @Gather(Gather.Merge.FIRST)
+    public CompletionStage<Response> authenticate(LoginRequest login) {
+        // missing credentials fail like wrong ones, without taking a place in the hashing queue
+        if (login == null || isMissing(login.getEmail()) || isMissing(login.getPassword())
+                || isMissing(login.getRole())) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.UNAUTHORIZED).build());
         }
-        if (role.equals("adopter")) {
-            return state.authenticate(username, password, false);
+        try {
+            return RequestExecutor.respond(authenticator.login(login.getEmail(), login.getPassword(), login.getRole())
+                    .thenApply(result -> result == null ? Response.status(Response.Status.UNAUTHORIZED).build()
+                            : Response.ok(result).build()));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", 1)
+                    .build());
         }
-        return null;
+    }
+
+    private static boolean isMissing(String credential) {
+        return credential == null || credential.isBlank();
     }
 
     // FILTER THROUGH ADS
+    // With near (a postcode or town), the nearest first: the 20 nearest by default, or everything within radius km.
+    // Results are served from the ResponseCache until an advertisement, pet or pet owner changes.
     @GET
     @Path("/advertisements/filter")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Advertisement> filterAdvertisements(
-            @QueryParam("species") String species,
-            @QueryParam("breed") String breed,
-            @QueryParam("gender") String gender,
-            @QueryParam("compatibility") List<String> compatibility) {
-        return state.filterAdvertisements(species, breed, gender, compatibility);
-    }
-}
\ No newline at end of file
+    @Gather(Gather.Merge.FILTER)
+    public CompletionStage<Response> filterAdvertisements(
+                             @QueryParam("species") String species,
+                             @QueryParam("breed") String breed,
+                             @QueryParam("gender") String gender,
+                             @QueryParam("compatibility") List<String> compatibility,
+                             @QueryParam("near") String near,
+                             @QueryParam("radius") Double radius,
+                             @QueryParam("limit") Integer limit) {
+        if (near == null || near.isBlank()) {
+            if (radius != null || limit != null) {
+                throw new IllegalArgumentException("Radius and limit need a place to search around (near)!");
+            }
+            var query = filterQuery(species, breed, gender, compatibility, null, 0, 0);
+            return RequestExecutor.supply(() -> cachedFilter(query,
+                    () -> state.filterAdvertisements(species, breed, gender, compatibility)));
+        }
+        if (radius != null && !(radius > 0)) {
+            throw new IllegalArgumentException("Radius must be a positive number of kilometres!");
+        }
+        if (limit != null && (limit <= 0 || limit > Pagination.MAX_LIMIT)) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + Pagination.MAX_LIMIT + "!");
+        }
+        double within = radius != null ? radius : Double.POSITIVE_INFINITY;
+        int count = nearestCount(radius, limit);
+        var query = filterQuery(species, breed, gender, compatibility, near, within, count);
+        return RequestExecutor.supply(() -> cachedFilter(query,
+                () -> state.filterAdvertisements(species, breed, gender, compatibility, near, within, count)));
+    }
+
+    // How many advertisements a search around a place returns
+    static int nearestCount(Double radius, Integer limit) {
+        return limit != null ? limit : radius != null ? Pagination.MAX_LIMIT : NEAREST_DEFAULT;
+    }
+
+    // The version is read before the filter runs, so the result is at least as recent as the version it is cached at
+    private Response cachedFilter(String query, Supplier<List<Advertisement>> filter) {
+        long version = state.getVersion(EntityType.ADVERTISEMENT);
+        return Response.ok(responses.query(query, version, filter), MediaType.APPLICATION_JSON).build();
+    }
+
+    // One key per distinct filter: a missing criterion is the same as an empty one, genders are case-insensitive and
+    // compatibility lists count by the flags they name. Each part is prefixed with its length so none can run into
+    // the next.
+    private static String filterQuery(String species, String breed, String gender, List<String> compatibility,
+                                      String near, double radius, int limit) {
+        var query = new StringBuilder("filter");
+        for (var part : new String[]{species, breed, gender == null ? null : gender.toUpperCase(Locale.ROOT),
+                Integer.toString(CompatibilityMatcher.parse(compatibility)), near == null ? null : near.trim(),
+                Double.toString(radius), Integer.toString(limit)}) {
+            var value = part == null ? "" : part;
+            query.append('|').append(value.length()).append(':').append(value);
+        }
+        return query.toString();
+    }
+
+    // FACET COUNTS FOR THE FILTER
+    @GET
+    @Path("/advertisements/facets")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Gather(Gather.Merge.FACETS)
+    public CompletionStage<AdvertisementFacets> getAdvertisementFacets(
+                             @QueryParam("species") String species,
+                             @QueryParam("breed") String breed,
+                             @QueryParam("gender") String gender,
+                             @QueryParam("compatibility") List<String> compatibility) {
+        return RequestExecutor.supply(() -> state.getAdvertisementFacets(species, breed, gender, compatibility));
+    }
+
+    // FULL-TEXT SEARCH THROUGH ADS, best match first
+    @GET
+    @Path("/advertisements/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Gather(Gather.Merge.RANKED)
+    public CompletionStage<List<Advertisement>> searchAdvertisements(
+            @QueryParam("q") String query,
+            @QueryParam("limit") @DefaultValue(SEARCH_LIMIT) int limit) {
+        if (limit <= 0 || limit > Pagination.MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + Pagination.MAX_LIMIT + "!");
+        }
+        return RequestExecutor.supply(() -> state.searchAdvertisements(query, limit));
+    }
+
+    // CHANGE FEED: server-sent events for the workflow changes, all of them or only those of one pet owner, adopter
+    // or species. A client reconnecting with Last-Event-ID first gets what it missed.
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void changes(@Context SseEventSink sink, @Context Sse sse,
+                        @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventID,
+                        @QueryParam("petOwner") UUID petOwnerID,
+                        @QueryParam("adopter") UUID adopterID,
+                        @QueryParam("species") String species) {
+        changeFeed.subscribe(sink, sse, lastEventID, event ->
+                (petOwnerID == null || petOwnerID.equals(event.petOwnerID()))
+                        && (adopterID == null || adopterID.equals(event.adopterID()))
+                        && (species == null || species.equals(event.species())));
+    }
+
+    // The caller of a /{petOwner} or /{adopter} endpoint, read on the request thread. With a session token it
+    // has to be the user in the path. Without one it is refused, or stays anonymous (null) when
+    // -Dfurrybuddy.auth.required=false.
+    private static SessionPrincipal caller(SecurityContext security, User.Role role, UUID userID) {
+        var principal = SessionPrincipal.of(security);
+        if (principal == null) {
+            if (AuthenticationFilter.isRequired()) {
+                throw new NotAuthorizedException("Bearer");
+            }
+            return null;
+        }
+        if (principal.role() != role || !principal.userID().equals(userID)) {
+            throw new ForbiddenException("Session does not belong to this user!");
+        }
+        return principal;
+    }
+
+    // Compares IDs only: the owner on the advertisement or request is never looked up
+    private static void checkOwner(SessionPrincipal caller, User owner) {
+        if (caller != null && (owner == null || !caller.userID().equals(owner.getUserID()))) {
+            throw new ForbiddenException("This belongs to another user!");
+        }
+    }
+
+    // Once the change is stored; the notifications go out after the response, see WorkflowNotifier. The changes
+    // themselves are announced by ApplicationState: only what they do not tell is fired here.
+    private void notify(WorkflowEvent.Kind kind, AdoptionRequest request) {
+        events.fireAsync(WorkflowEvent.of(kind, request));
+    }
+}
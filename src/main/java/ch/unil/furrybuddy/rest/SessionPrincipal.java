@@ -0,0 +1,21 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.User;
+import jakarta.ws.rs.core.SecurityContext;
+
+import java.security.Principal;
+import java.util.UUID;
+
+// The user behind a verified session token, taken from the token alone
+public record SessionPrincipal(UUID userID, User.Role role, long expiresAt) implements Principal {
+
+    @Override
+    public String getName() {
+        return userID.toString();
+    }
+
+    // null for an anonymous request
+    static SessionPrincipal of(SecurityContext security) {
+        return security != null && security.getUserPrincipal() instanceof SessionPrincipal principal ? principal : null;
+    }
+}
@@ -0,0 +1,99 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ShardRing;
+import ch.unil.furrybuddy.domain.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+
+// HMAC-SHA256 with the server's key. Tokens are base64url(user ID, role, expiry in epoch seconds) + "." +
+// base64url(signature). The key comes from -Dfurrybuddy.auth.key (Base64, shared by every node); without it a
+// random key is made at startup and sessions end with a restart. A sharded service does not start without it.
+final class SessionTokens {
+
+    static final String KEY_PROPERTY = ShardRing.KEY_PROPERTY;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final SecretKeySpec KEY = new SecretKeySpec(loadKey(), ALGORITHM);
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            var mac = Mac.getInstance(ALGORITHM);
+            mac.init(KEY);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available!", e);
+        }
+    });
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    // user ID, role ordinal, expiry
+    private static final int PAYLOAD_BYTES = 16 + 1 + 8;
+    private static final User.Role[] ROLES = User.Role.values();
+
+    private SessionTokens() {
+    }
+
+    static String issue(UUID userID, User.Role role, long expiresAt) {
+        var payload = ByteBuffer.allocate(PAYLOAD_BYTES)
+                .putLong(userID.getMostSignificantBits())
+                .putLong(userID.getLeastSignificantBits())
+                .put((byte) role.ordinal())
+                .putLong(expiresAt)
+                .array();
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(MAC.get().doFinal(payload));
+    }
+
+    // null unless the signature matches and the token has not expired. Needs no state: everything is in the token.
+    static SessionPrincipal verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (payload.length != PAYLOAD_BYTES || !MessageDigest.isEqual(MAC.get().doFinal(payload), signature)) {
+            return null;
+        }
+        var buffer = ByteBuffer.wrap(payload);
+        var userID = new UUID(buffer.getLong(), buffer.getLong());
+        int role = buffer.get();
+        long expiresAt = buffer.getLong();
+        if (role < 0 || role >= ROLES.length || expiresAt <= System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        return new SessionPrincipal(userID, ROLES[role], expiresAt);
+    }
+
+    // Keyed digest of the given strings, for looking up secrets without keeping them around
+    static String fingerprint(String... parts) {
+        var mac = MAC.get();
+        for (var part : parts) {
+            mac.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+        }
+        return ENCODER.encodeToString(mac.doFinal());
+    }
+
+    private static byte[] loadKey() {
+        var configured = System.getProperty(KEY_PROPERTY);
+        if (configured != null && !configured.isBlank()) {
+            return Base64.getDecoder().decode(configured);
+        }
+        var key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
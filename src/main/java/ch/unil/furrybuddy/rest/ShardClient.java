@@ -0,0 +1,256 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.EntityType;
+import ch.unil.furrybuddy.domain.RemoteShards;
+import ch.unil.furrybuddy.domain.ShardRing;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// HTTP between the shards of a sharded service (see ShardRing). A call from one shard to another carries
+// FORWARDED_HEADER, a signature made with the session token key over the method, the target (path and query), a
+// digest of the body, the original client and EXPIRES_HEADER, so every shard must run with the same
+// -Dfurrybuddy.auth.key. A request bearing a valid, unexpired one is served where it arrives and is limited as the
+// client named in CLIENT_HEADER (see AdmissionFilter). Signatures last SIGNATURE_SECONDS: the shards' clocks must
+// agree to within that.
+@ApplicationScoped
+public class ShardClient implements RemoteShards {
+
+    public static final String TIMEOUT_PROPERTY = "furrybuddy.shard.timeoutMillis";
+
+    static final String FORWARDED_HEADER = "X-FurryBuddy-Forwarded";
+    static final String CLIENT_HEADER = "X-FurryBuddy-Client";
+    static final String EXPIRES_HEADER = "X-FurryBuddy-Expires";
+
+    private static final long SIGNATURE_SECONDS = 30;
+    // the outcome of forwardedClient, which reads the body and so is only worked out once per request
+    private static final String FORWARDED = ShardClient.class.getName() + ".forwarded";
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+    // headers about the request or the answer itself; the others (Host, Content-Length...) belong to each hop
+    private static final List<String> REQUEST_HEADERS = List.of(HttpHeaders.AUTHORIZATION, HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.ACCEPT, HttpHeaders.IF_MATCH, HttpHeaders.IF_NONE_MATCH);
+    static final List<String> RESPONSE_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG,
+            HttpHeaders.RETRY_AFTER, HttpHeaders.WWW_AUTHENTICATE, HttpHeaders.LOCATION, Pagination.NEXT_CURSOR);
+
+    // A request as it is passed on: target is its path relative to the application's base URI, with its query
+    record Call(String method, String target, Map<String, String> headers, byte[] body, String client) {
+    }
+
+    // An answer of one shard, whether it came over HTTP or from this one's resource method
+    record Answer(int status, byte[] body, Map<String, String> headers) {
+
+        static Answer of(HttpResponse<byte[]> response) {
+            var headers = new LinkedHashMap<String, String>();
+            for (var name : RESPONSE_HEADERS) {
+                response.headers().firstValue(name).ifPresent(value -> headers.put(name, value));
+            }
+            return new Answer(response.statusCode(), response.body(), headers);
+        }
+
+        static Answer of(ContainerResponseContext response) {
+            var headers = new LinkedHashMap<String, String>();
+            for (var name : RESPONSE_HEADERS) {
+                var value = response.getHeaderString(name);
+                if (value != null) {
+                    headers.put(name, value);
+                }
+            }
+            return new Answer(response.getStatus(), encode(response.getEntity()), headers);
+        }
+
+        // The entity as the resource would have written it: the resources only answer JSON
+        private static byte[] encode(Object entity) {
+            if (entity == null) {
+                return new byte[0];
+            }
+            if (entity instanceof byte[] json) {
+                return json;
+            }
+            if (entity instanceof StreamingOutput output) {
+                var json = new ByteArrayOutputStream();
+                try {
+                    output.write(json);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return json.toByteArray();
+            }
+            return JSONB.toJson(entity).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final ShardRing ring = ShardRing.configured();
+    private final Duration timeout = Duration.ofMillis(Long.getLong(TIMEOUT_PROPERTY, 5000));
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(timeout).build();
+
+    // The incoming request as a Call
+    static Call callOf(ContainerRequestContext request, String client) {
+        var headers = new LinkedHashMap<String, String>();
+        for (var name : REQUEST_HEADERS) {
+            var value = request.getHeaderString(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        return new Call(request.getMethod(), targetOf(request), headers, bodyOf(request), client);
+    }
+
+    // The original client of a request forwarded by another shard, null when it was not or its signature does not
+    // hold (any more)
+    static String forwardedClient(ContainerRequestContext request) {
+        if (request.getProperty(FORWARDED) instanceof String checked) {
+            return checked.isEmpty() ? null : checked;
+        }
+        var client = verify(request);
+        request.setProperty(FORWARDED, client == null ? "" : client);
+        return client;
+    }
+
+    private static String verify(ContainerRequestContext request) {
+        var signature = request.getHeaderString(FORWARDED_HEADER);
+        var client = request.getHeaderString(CLIENT_HEADER);
+        var expires = request.getHeaderString(EXPIRES_HEADER);
+        if (signature == null || client == null || expires == null) {
+            return null;
+        }
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(expires);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (expiresAt < System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        var expected = signature(request.getMethod(), targetOf(request), bodyOf(request), client, expiresAt);
+        boolean valid = MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                signature.getBytes(StandardCharsets.UTF_8));
+        return valid ? client : null;
+    }
+
+    // The path and query after the application's base URI, as the sending shard put them after the receiver's
+    private static String targetOf(ContainerRequestContext request) {
+        var uri = request.getUriInfo();
+        return uri.getBaseUri().relativize(uri.getRequestUri()).toString();
+    }
+
+    // The body is read here and put back for the resource method
+    private static byte[] bodyOf(ContainerRequestContext request) {
+        byte[] body;
+        try (var in = request.getEntityStream()) {
+            body = in == null ? new byte[0] : in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        request.setEntityStream(new ByteArrayInputStream(body));
+        return body;
+    }
+
+    // The call on the given shard; completes exceptionally when that shard cannot be reached
+    CompletableFuture<HttpResponse<byte[]>> send(String shard, Call call) {
+        long expiresAt = System.currentTimeMillis() / 1000 + SIGNATURE_SECONDS;
+        var signature = signature(call.method(), call.target(), call.body(), call.client(), expiresAt);
+        var builder = HttpRequest.newBuilder(URI.create(shard + "/" + call.target()))
+                .timeout(timeout)
+                .method(call.method(), call.body().length == 0 ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(call.body()))
+                .header(FORWARDED_HEADER, signature)
+                .header(CLIENT_HEADER, call.client())
+                .header(EXPIRES_HEADER, Long.toString(expiresAt));
+        call.headers().forEach(builder::header);
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    // The call on every shard but this one, in the order of the ring's list: this one answers it itself, so it is
+    // neither admitted twice nor left waiting on its own threads
+    List<CompletableFuture<HttpResponse<byte[]>>> sendToOthers(Call call) {
+        return ring.shards().stream()
+                .filter(shard -> !shard.equals(ring.self()))
+                .map(shard -> send(shard, call))
+                .toList();
+    }
+
+    // The answer of the given shard, as this shard's answer
+    Response forward(String shard, Call call) {
+        try {
+            return relay(Answer.of(send(shard, call).join()));
+        } catch (CompletionException e) {
+            throw new WebApplicationException(unavailable());
+        }
+    }
+
+    static Response relay(Answer answer) {
+        var response = Response.status(answer.status());
+        answer.headers().forEach(response::header);
+        return (answer.body().length == 0 ? response : response.entity(answer.body())).build();
+    }
+
+    @Override
+    public Object find(EntityType type, UUID id) {
+        var call = new Call("GET", pathOf(type) + "/" + id, Map.of(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON),
+                new byte[0], "shard " + ring.self());
+        HttpResponse<byte[]> answer;
+        try {
+            answer = send(ring.ownerOf(id), call).join();
+        } catch (CompletionException e) {
+            throw new WebApplicationException(unavailable());
+        }
+        // the resources answer a missing ID with an error, and nothing else can go wrong in a plain read
+        return answer.statusCode() == 200 ? JSONB.fromJson(new ByteArrayInputStream(answer.body()), type.entityClass())
+                : null;
+    }
+
+    private static String pathOf(EntityType type) {
+        return switch (type) {
+            case PET -> "pets";
+            case PET_OWNER -> "petOwners";
+            case ADOPTER -> "adopters";
+            case ADVERTISEMENT -> "advertisements";
+            case ADOPTION_REQUEST -> "adoptionRequests";
+        };
+    }
+
+    private static String signature(String method, String target, byte[] body, String client, long expiresAt) {
+        String digest;
+        try {
+            digest = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return SessionTokens.fingerprint("shard", method, target, digest, client, Long.toString(expiresAt));
+    }
+
+    static Response unavailable() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, 1)
+                .build();
+    }
+}
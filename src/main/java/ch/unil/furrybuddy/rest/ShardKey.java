@@ -0,0 +1,17 @@
+package ch.unil.furrybuddy.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a resource method that has to run on the shard owning one ID, for ShardRouter: the path parameter named
+// value, or the field reached by following body through the JSON request body.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ShardKey {
+
+    String value() default "";
+
+    String[] body() default {};
+}
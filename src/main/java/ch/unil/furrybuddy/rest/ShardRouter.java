@@ -0,0 +1,266 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.Advertisement;
+import ch.unil.furrybuddy.domain.AdvertisementFacets;
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+
+import java.io.ByteArrayInputStream;
+import java.lang.annotation.Annotation;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// In a sharded service (see ShardRing), sends a request to where its data is: a @ShardKey method to the shard owning
+// its key, a @Gather method to every other shard while its resource method runs here, merging the answers once
+// this one's is there. Other methods, and requests already forwarded by another shard, run here. Runs after
+// admission and metrics, so a routed request is limited and timed here as well as on the shards that serve it.
+// A shard that cannot be reached makes the request fail with 503.
+@Provider
+@Priority(Priorities.USER + 100)
+public class ShardRouter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+    private static final String GATHERING = ShardRouter.class.getName() + ".gathering";
+
+    // The answers of the other shards to a @Gather request, still on their way
+    private record Gathering(Gather gather, List<CompletableFuture<HttpResponse<byte[]>>> others) {
+    }
+
+    @Inject
+    private ApplicationState state;
+
+    @Inject
+    private ShardClient shards;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        var ring = state.getShardRing();
+        if (ring == null || ShardClient.forwardedClient(request) != null) {
+            return;
+        }
+        var method = resourceInfo.getResourceMethod();
+        var key = method.getAnnotation(ShardKey.class);
+        var gather = method.getAnnotation(Gather.class);
+        if (key == null && gather == null) {
+            return;
+        }
+        if (gather != null) {
+            // the merged answer has no version of its own, so no shard may answer 304 for its part
+            request.getHeaders().remove(HttpHeaders.IF_NONE_MATCH);
+        }
+        var call = ShardClient.callOf(request, (String) request.getProperty(AdmissionFilter.CLIENT));
+        if (key != null) {
+            var id = key.body().length > 0 ? bodyKey(call.body(), key.body())
+                    : parse(request.getUriInfo().getPathParameters().getFirst(key.value()));
+            // a missing or malformed key fails the same way here as anywhere
+            if (id != null && !ring.isLocal(id)) {
+                request.abortWith(shards.forward(ring.ownerOf(id), call));
+            }
+            return;
+        }
+        request.setProperty(GATHERING, new Gathering(gather, shards.sendToOthers(call)));
+    }
+
+    // Merges this shard's answer to a @Gather request with those of the others, in the order of the ring's list
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (!(request.getProperty(GATHERING) instanceof Gathering gathering)) {
+            return;
+        }
+        request.removeProperty(GATHERING);
+        var answers = new ArrayList<ShardClient.Answer>();
+        try {
+            for (var other : gathering.others()) {
+                answers.add(ShardClient.Answer.of(other.join()));
+            }
+        } catch (CompletionException e) {
+            replace(response, ShardClient.unavailable());
+            return;
+        }
+        var ring = state.getShardRing();
+        answers.add(ring.shards().indexOf(ring.self()), ShardClient.Answer.of(response));
+        replace(response, merge(gathering.gather(), answers, request.getUriInfo().getQueryParameters()));
+    }
+
+    private static Response merge(Gather gather, List<ShardClient.Answer> answers,
+                                  MultivaluedMap<String, String> query) {
+        if (gather.value() == Gather.Merge.FIRST) {
+            return ShardClient.relay(first(answers));
+        }
+        var succeeded = answers.stream().filter(answer -> answer.status() / 100 == 2).toList();
+        if (succeeded.size() < answers.size() && (succeeded.isEmpty() || gather.value() == Gather.Merge.ALL)) {
+            // the same request fails the same way on every shard; an empty shard's error does not count in a list
+            return ShardClient.relay(answers.stream()
+                    .filter(answer -> answer.status() / 100 != 2)
+                    .findFirst()
+                    .orElseThrow());
+        }
+        return switch (gather.value()) {
+            case PAGE -> page(gather.type(), succeeded, parseLimit(query.getFirst("limit")));
+            case LIST -> json(sorted(gather.type(), entities(gather.type(), succeeded)));
+            case FILTER -> filter(succeeded, query.getFirst("near"), query.getFirst("radius"), query.getFirst("limit"));
+            case FACETS -> json(facets(succeeded));
+            case RANKED -> json(interleave(gather.type(), succeeded, Integer.parseInt(
+                    Objects.requireNonNullElse(query.getFirst("limit"), ServiceResource.SEARCH_LIMIT))));
+            // every shard did it; they all answer the same
+            case FIRST, ALL -> ShardClient.relay(succeeded.get(0));
+        };
+    }
+
+    // Puts the merged answer in place of this shard's one, without the headers that only held for the latter
+    private static void replace(ContainerResponseContext response, Response merged) {
+        var headers = response.getHeaders();
+        ShardClient.RESPONSE_HEADERS.forEach(headers::remove);
+        merged.getHeaders().forEach((name, values) -> headers.put(name, new ArrayList<>(values)));
+        response.setStatus(merged.getStatus());
+        if (merged.getEntity() == null) {
+            response.setEntity(null);
+        } else {
+            response.setEntity(merged.getEntity(), new Annotation[0], MediaType.APPLICATION_JSON_TYPE);
+        }
+    }
+
+    // A user exists on one shard only: the others answer 401, as the owning one does for a wrong password. A 200
+    // wins, then any other failure (a full hashing pool).
+    static ShardClient.Answer first(List<ShardClient.Answer> answers) {
+        return answers.stream().filter(answer -> answer.status() == 200).findFirst()
+                .or(() -> answers.stream().filter(answer -> answer.status() != 401).findFirst())
+                .orElse(answers.get(0));
+    }
+
+    // Every shard sent its first limit entities after the cursor; the first limit of all of them are the page
+    private static Response page(EntityType type, List<ShardClient.Answer> answers, Integer limit) {
+        var all = sorted(type, entities(type, answers));
+        if (limit == null) {
+            return json(all);
+        }
+        var page = all.subList(0, Math.min(limit, all.size()));
+        boolean more = all.size() > limit
+                || answers.stream().anyMatch(answer -> answer.headers().containsKey(Pagination.NEXT_CURSOR));
+        var response = Response.ok(new ArrayList<>(page), MediaType.APPLICATION_JSON);
+        if (more && !page.isEmpty()) {
+            response.header(Pagination.NEXT_CURSOR, type.idOf(page.get(page.size() - 1)));
+        }
+        return response.build();
+    }
+
+    private static Response filter(List<ShardClient.Answer> answers, String near, String radius, String limit) {
+        var all = entities(EntityType.ADVERTISEMENT, answers);
+        if (near == null || near.isBlank()) {
+            return json(sorted(EntityType.ADVERTISEMENT, all));
+        }
+        var advertisements = all.stream().map(Advertisement.class::cast).toList();
+        int count = ServiceResource.nearestCount(radius == null ? null : Double.valueOf(radius), parseLimit(limit));
+        return json(ApplicationState.nearestFirst(advertisements, near, count));
+    }
+
+    private static AdvertisementFacets facets(List<ShardClient.Answer> answers) {
+        long total = 0;
+        var species = new LinkedHashMap<String, Long>();
+        var breed = new LinkedHashMap<String, Long>();
+        var gender = new LinkedHashMap<String, Long>();
+        var compatibility = new LinkedHashMap<String, Long>();
+        for (var answer : answers) {
+            var facets = JSONB.fromJson(new ByteArrayInputStream(answer.body()), AdvertisementFacets.class);
+            total += facets.total();
+            facets.species().forEach((value, count) -> species.merge(value, count, Long::sum));
+            facets.breed().forEach((value, count) -> breed.merge(value, count, Long::sum));
+            facets.gender().forEach((value, count) -> gender.merge(value, count, Long::sum));
+            facets.compatibility().forEach((value, count) -> compatibility.merge(value, count, Long::sum));
+        }
+        return new AdvertisementFacets(total, species, breed, gender, compatibility);
+    }
+
+    // Each shard ranks against its own statistics, so the scores do not compare across shards: the merged list
+    // takes the best remaining result of each shard in turn
+    private static List<Object> interleave(EntityType type, List<ShardClient.Answer> answers, int limit) {
+        var lists = answers.stream().map(answer -> entities(type, List.of(answer))).toList();
+        var merged = new ArrayList<>();
+        for (int rank = 0; merged.size() < limit; rank++) {
+            boolean any = false;
+            for (var list : lists) {
+                if (rank < list.size() && merged.size() < limit) {
+                    merged.add(list.get(rank));
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+        }
+        return merged;
+    }
+
+    private static List<Object> entities(EntityType type, List<ShardClient.Answer> answers) {
+        var all = new ArrayList<>();
+        for (var answer : answers) {
+            all.addAll(Arrays.asList((Object[]) JSONB.fromJson(new ByteArrayInputStream(answer.body()),
+                    type.entityClass().arrayType())));
+        }
+        return all;
+    }
+
+    // The UUID order of the state maps
+    private static List<Object> sorted(EntityType type, List<Object> entities) {
+        entities.sort(Comparator.comparing(type::idOf));
+        return entities;
+    }
+
+    private static Response json(Object entity) {
+        return Response.ok(entity, MediaType.APPLICATION_JSON).build();
+    }
+
+    // The ID at path in a JSON body, null when there is none
+    static UUID bodyKey(byte[] body, String[] path) {
+        try {
+            Object node = JSONB.fromJson(new ByteArrayInputStream(body), Map.class);
+            for (var name : path) {
+                node = node instanceof Map<?, ?> map ? map.get(name) : null;
+            }
+            return node instanceof String id ? parse(id) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static UUID parse(String id) {
+        try {
+            return id == null ? null : UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Every shard accepted it already
+    private static Integer parseLimit(String limit) {
+        return limit == null ? null : Integer.valueOf(limit);
+    }
+}
@@ -0,0 +1,81 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import ch.unil.furrybuddy.domain.EntityType;
+import ch.unil.furrybuddy.domain.VersionMismatchException;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+// Conditional requests on top of the version stamps of ApplicationState. The strong ETag is "<epoch>-<version>",
+// so a tag handed out before a restart never matches again. An entity is read together with its version under its
+// stripe and encoded after that, so a response is never tagged newer than its body.
+final class Versions {
+
+    private Versions() {
+    }
+
+    // 304 without a body when If-None-Match names the current version, otherwise the JSON encoded for that version
+    static Response get(Request request, ApplicationState state, ResponseCache cache, EntityType type, UUID id,
+                        Supplier<?> read) {
+        var versioned = state.getVersioned(type, id, read);
+        var tag = tag(state, versioned.version());
+        var notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(cache.entity(type, id, versioned.version(), versioned.entity()), MediaType.APPLICATION_JSON)
+                .tag(tag)
+                .build();
+    }
+
+    // The same for a collection endpoint; the list is only built when the client's copy is out of date
+    static Response list(Request request, ApplicationState state, EntityType type, Supplier<Response> list) {
+        var tag = tag(state, state.getVersion(type));
+        var notModified = request.evaluatePreconditions(tag);
+        return notModified != null ? notModified.build() : Response.fromResponse(list.get()).tag(tag).build();
+    }
+
+    // A PUT honoring If-Match: 412 when the entity is no longer at one of the listed versions
+    static Response update(ApplicationState state, String ifMatch, Function<LongPredicate, Boolean> update) {
+        try {
+            return Response.ok(update.apply(expectedVersion(state, ifMatch))).build();
+        } catch (VersionMismatchException e) {
+            return Response.status(Response.Status.PRECONDITION_FAILED).build();
+        }
+    }
+
+    static EntityTag tag(ApplicationState state, long version) {
+        return new EntityTag(Long.toHexString(state.getEpoch()) + "-" + version);
+    }
+
+    // null without If-Match. Weak tags never match (If-Match compares strongly), nor do tags of an earlier run.
+    static LongPredicate expectedVersion(ApplicationState state, String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return null;
+        }
+        var prefix = "\"" + Long.toHexString(state.getEpoch()) + "-";
+        var accepted = new HashSet<Long>();
+        for (var candidate : ifMatch.split(",")) {
+            var tag = candidate.trim();
+            if (tag.equals("*")) {
+                return version -> true;
+            }
+            if (tag.startsWith(prefix) && tag.endsWith("\"") && tag.length() > prefix.length() + 1) {
+                try {
+                    accepted.add(Long.parseLong(tag.substring(prefix.length(), tag.length() - 1)));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return accepted::contains;
+    }
+}
@@ -0,0 +1,70 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.Adopter;
+import ch.unil.furrybuddy.domain.AdoptionRequest;
+import ch.unil.furrybuddy.domain.Advertisement;
+import ch.unil.furrybuddy.domain.EntityChange;
+import ch.unil.furrybuddy.domain.Pet;
+import ch.unil.furrybuddy.domain.PetOwner;
+import ch.unil.furrybuddy.domain.User;
+
+import java.util.UUID;
+
+// Something the parties of an adoption should hear about, fired once the change is stored: every change of the
+// state (<TYPE>_CREATED, _UPDATED, _REMOVED) and the outcomes of adoption requests, which ServiceResource fires.
+// species is that of the pet concerned, so ChangeFeed subscribers can filter on it without a lookup.
+public record WorkflowEvent(Kind kind, UUID subjectID, UUID petOwnerID, UUID adopterID, String species) {
+
+    public enum Kind {
+        PET_CREATED,
+        PET_UPDATED,
+        PET_REMOVED,
+        PET_OWNER_CREATED,
+        PET_OWNER_UPDATED,
+        PET_OWNER_REMOVED,
+        ADOPTER_CREATED,
+        ADOPTER_UPDATED,
+        ADOPTER_REMOVED,
+        ADVERTISEMENT_CREATED,
+        ADVERTISEMENT_UPDATED,
+        ADVERTISEMENT_REMOVED,
+        ADOPTION_REQUEST_CREATED,
+        ADOPTION_REQUEST_UPDATED,
+        ADOPTION_REQUEST_REMOVED,
+        ADOPTION_REQUEST_ACCEPTED,
+        ADOPTION_REQUEST_REJECTED,
+        ADOPTION_REQUEST_CANCELLED
+    }
+
+    static WorkflowEvent of(EntityChange change) {
+        var kind = Kind.valueOf(change.type().name() + "_" + change.kind().name());
+        var entity = change.entity();
+        if (entity instanceof Pet pet) {
+            return new WorkflowEvent(kind, change.id(), null, null, pet.getSpecies());
+        } else if (entity instanceof PetOwner) {
+            return new WorkflowEvent(kind, change.id(), change.id(), null, null);
+        } else if (entity instanceof Adopter) {
+            return new WorkflowEvent(kind, change.id(), null, change.id(), null);
+        } else if (entity instanceof Advertisement advertisement) {
+            return new WorkflowEvent(kind, change.id(), idOf(advertisement.getPetOwner()), null,
+                    speciesOf(advertisement));
+        } else if (entity instanceof AdoptionRequest request) {
+            return of(kind, request);
+        }
+        return new WorkflowEvent(kind, change.id(), null, null, null);
+    }
+
+    static WorkflowEvent of(Kind kind, AdoptionRequest request) {
+        var advertisement = request.getAdvertisement();
+        return new WorkflowEvent(kind, request.getRequestID(), advertisement == null ? null
+                : idOf(advertisement.getPetOwner()), idOf(request.getAdopter()), speciesOf(advertisement));
+    }
+
+    private static UUID idOf(User user) {
+        return user == null ? null : user.getUserID();
+    }
+
+    private static String speciesOf(Advertisement advertisement) {
+        return advertisement == null || advertisement.getPet() == null ? null : advertisement.getPet().getSpecies();
+    }
+}
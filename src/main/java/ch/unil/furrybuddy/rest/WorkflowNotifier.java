@@ -0,0 +1,39 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.EntityChange;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.ObservesAsync;
+
+import java.util.logging.Logger;
+
+// Fan-out of the workflow events. ApplicationState fires the changes and ServiceResource the outcomes of adoption
+// requests with fireAsync, so this runs on the container's event threads after the response is on its way. There
+// is no mail channel yet: the log is the notification, and ChangeFeed observes the same events to push them to
+// connected clients. Of the changes, only those a pet owner or an adopter hears about are told.
+@ApplicationScoped
+public class WorkflowNotifier {
+    private static final Logger log = Logger.getLogger(WorkflowNotifier.class.getName());
+
+    void notify(@ObservesAsync EntityChange change) {
+        notify(WorkflowEvent.of(change));
+    }
+
+    void notify(@ObservesAsync WorkflowEvent event) {
+        var message = switch (event.kind()) {
+            case ADVERTISEMENT_CREATED -> "Pet owner " + event.petOwnerID() + " published advertisement " + event.subjectID();
+            case ADVERTISEMENT_REMOVED -> "Pet owner " + event.petOwnerID() + " removed advertisement " + event.subjectID();
+            case ADOPTION_REQUEST_CREATED -> "Adopter " + event.adopterID() + " sent adoption request " + event.subjectID()
+                    + " to pet owner " + event.petOwnerID();
+            case ADOPTION_REQUEST_ACCEPTED -> "Pet owner " + event.petOwnerID() + " accepted adoption request "
+                    + event.subjectID() + " of adopter " + event.adopterID();
+            case ADOPTION_REQUEST_REJECTED -> "Pet owner " + event.petOwnerID() + " rejected adoption request "
+                    + event.subjectID() + " of adopter " + event.adopterID();
+            case ADOPTION_REQUEST_CANCELLED -> "Adopter " + event.adopterID() + " cancelled adoption request "
+                    + event.subjectID() + " to pet owner " + event.petOwnerID();
+            default -> null;
+        };
+        if (message != null) {
+            log.info(message);
+        }
+    }
+}
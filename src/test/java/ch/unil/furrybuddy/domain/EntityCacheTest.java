@@ -0,0 +1,89 @@
+package ch.unil.furrybuddy.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntityCacheTest {
+
+    @Test
+    void neverHoldsMoreThanItsCapacity() {
+        var cache = new EntityCache<String>(1000);
+        for (int i = 0; i < 5000; i++) {
+            cache.put(id(i), "entity " + i);
+        }
+        var stats = cache.stats();
+        assertTrue(cache.size() <= 1000, "size " + cache.size());
+        assertEquals(5000 - cache.size(), stats.evictions());
+        assertEquals(1000, stats.capacity());
+    }
+
+    @Test
+    void keepsFrequentlyReadEntitiesThroughAScan() {
+        var cache = new EntityCache<String>(100);
+        for (int i = 0; i < 20; i++) {
+            cache.put(id(i), "hot " + i);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 20; i++) {
+                assertNotNull(cache.get(id(i)));
+            }
+        }
+        // a listing reads every entity once, far more of them than the cache holds, while the hot ones are still
+        // being read
+        for (int i = 1000; i < 3000; i++) {
+            cache.put(id(i), "cold " + i);
+            if (i % 5 == 0) {
+                cache.get(id(i / 5 % 20));
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals("hot " + i, cache.peek(id(i)));
+        }
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        var cache = new EntityCache<String>(10);
+        cache.put(id(1), "one");
+        cache.get(id(1));
+        cache.get(id(1));
+        cache.get(id(2));
+        cache.peek(id(2));
+        var stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+    }
+
+    @Test
+    void behavesAsAMap() {
+        var cache = new EntityCache<String>(10);
+        assertNull(cache.putIfAbsent(id(1), "one"));
+        assertEquals("one", cache.putIfAbsent(id(1), "uno"));
+        cache.put(id(1), "eins");
+        assertEquals("eins", cache.get(id(1)));
+        assertTrue(cache.containsKey(id(1)));
+        assertEquals("eins", cache.remove(id(1)));
+        assertNull(cache.get(id(1)));
+        assertNull(cache.get("not an ID"));
+        cache.put(id(2), "two");
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void refusesANonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new EntityCache<String>(0));
+    }
+
+    // fixed IDs, so the frequency sketch collides the same way on every run
+    private static UUID id(int i) {
+        return UUID.nameUUIDFromBytes(("entity " + i).getBytes());
+    }
+}
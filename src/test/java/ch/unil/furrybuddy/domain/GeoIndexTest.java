@@ -0,0 +1,117 @@
+package ch.unil.furrybuddy.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GeoIndexTest {
+
+    private static final Geocoder.Point LAUSANNE = new Geocoder.Point(46.520, 6.633);
+    private static final Geocoder.Point GENEVA = new Geocoder.Point(46.204, 6.143);
+    private static final Geocoder.Point ZURICH = new Geocoder.Point(47.377, 8.541);
+
+    @Test
+    void findsWhatAFullScanFinds() {
+        var random = new Random(42);
+        // a whole postal district shares one point, so many advertisements sit at the same place
+        var points = new ArrayList<Geocoder.Point>();
+        for (int i = 0; i < 300; i++) {
+            points.add(new Geocoder.Point(42 + random.nextDouble() * 8, -2 + random.nextDouble() * 13));
+        }
+        var index = new GeoIndex();
+        var located = new HashMap<UUID, Geocoder.Point>();
+        for (int i = 0; i < 3000; i++) {
+            var advertisementID = new UUID(random.nextLong(), random.nextLong());
+            var point = points.get(random.nextInt(points.size()));
+            index.index(advertisementID, UUID.randomUUID(), point);
+            located.put(advertisementID, point);
+        }
+        Predicate<UUID> even = id -> (id.getLeastSignificantBits() & 1) == 0;
+        for (int query = 0; query < 200; query++) {
+            var origin = random.nextBoolean() ? points.get(random.nextInt(points.size()))
+                    : new Geocoder.Point(41 + random.nextDouble() * 10, -3 + random.nextDouble() * 15);
+            double radius = new double[]{5, 50, 300, Double.POSITIVE_INFINITY}[random.nextInt(4)];
+            int limit = new int[]{1, 20, 5000}[random.nextInt(3)];
+            Predicate<UUID> filter = random.nextBoolean() ? id -> true : even;
+            assertEquals(scan(located, origin, radius, limit, filter), index.nearest(origin, radius, limit, filter),
+                    "near " + origin + " within " + radius + " km, limit " + limit);
+        }
+    }
+
+    @Test
+    void followsAPetOwnerWhoMoves() {
+        var index = new GeoIndex();
+        var petOwnerID = UUID.randomUUID();
+        var advertisementID = UUID.randomUUID();
+        var other = UUID.randomUUID();
+        index.index(advertisementID, petOwnerID, LAUSANNE);
+        index.index(other, UUID.randomUUID(), GENEVA);
+        assertEquals(List.of(advertisementID), index.nearest(LAUSANNE, 10, 20, id -> true));
+
+        index.move(advertisementID, petOwnerID, ZURICH);
+        assertEquals(List.of(), index.nearest(LAUSANNE, 10, 20, id -> true));
+        assertEquals(List.of(advertisementID, other), index.nearest(ZURICH, Double.POSITIVE_INFINITY, 20, id -> true));
+
+        // handed over to someone else in the meantime
+        index.move(other, petOwnerID, ZURICH);
+        assertEquals(List.of(other), index.nearest(GENEVA, 10, 20, id -> true));
+    }
+
+    @Test
+    void forgetsUnindexedAndUnlocatedAdvertisements() {
+        var index = new GeoIndex();
+        var petOwnerID = UUID.randomUUID();
+        var advertisementID = UUID.randomUUID();
+        var unlocated = UUID.randomUUID();
+        index.index(advertisementID, petOwnerID, LAUSANNE);
+        index.index(unlocated, petOwnerID, null);
+        assertEquals(Set.of(advertisementID, unlocated), index.advertisementsOfPetOwner(petOwnerID));
+        assertEquals(List.of(advertisementID), index.nearest(LAUSANNE, Double.POSITIVE_INFINITY, 20, id -> true));
+
+        index.unindex(advertisementID);
+        index.unindex(unlocated);
+        assertEquals(Set.of(), index.advertisementsOfPetOwner(petOwnerID));
+        assertEquals(List.of(), index.nearest(LAUSANNE, Double.POSITIVE_INFINITY, 20, id -> true));
+    }
+
+    @Test
+    void locatesPostcodesAndTowns() {
+        assertEquals(LAUSANNE, Geocoder.locate("1004"));
+        assertEquals(LAUSANNE, Geocoder.locate("CH-1004"));
+        assertEquals(new Geocoder.Point(48.857, 2.352), Geocoder.locate("75011"));
+        assertEquals(GENEVA, Geocoder.locate("Gen\u00e8ve"));
+        assertEquals(GENEVA, Geocoder.locate("Geneva"));
+        assertEquals(GENEVA, Geocoder.locate(" genf "));
+        assertEquals(Geocoder.locate("Luzern"), Geocoder.locate("Lucerne"));
+        assertEquals(Geocoder.locate("Biel/Bienne"), Geocoder.locate("Bienne"));
+        assertNull(Geocoder.locate("123"));
+        assertNull(Geocoder.locate("Atlantis"));
+        assertEquals(51, Geocoder.distance(LAUSANNE, GENEVA), 2);
+    }
+
+    private static List<UUID> scan(Map<UUID, Geocoder.Point> located, Geocoder.Point origin, double radius, int limit,
+                                   Predicate<UUID> filter) {
+        record Hit(UUID advertisementID, double distance) {
+        }
+        var hits = new ArrayList<Hit>();
+        located.forEach((advertisementID, point) -> {
+            double distance = Geocoder.distance(origin, point);
+            if (distance <= radius && filter.test(advertisementID)) {
+                hits.add(new Hit(advertisementID, distance));
+            }
+        });
+        hits.sort(Comparator.comparingDouble(Hit::distance).thenComparing(Hit::advertisementID));
+        return hits.stream().limit(limit).map(Hit::advertisementID).toList();
+    }
+}
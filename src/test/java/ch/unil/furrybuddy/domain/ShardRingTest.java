@@ -0,0 +1,118 @@
+package ch.unil.furrybuddy.domain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRingTest {
+
+    private static final List<String> SHARDS = List.of("http://a:8080/api", "http://b:8080/api", "http://c:8080/api");
+    private static final int IDS = 30000;
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty(ShardRing.SHARDS_PROPERTY);
+        System.clearProperty(ShardRing.SELF_PROPERTY);
+        System.clearProperty(ShardRing.KEY_PROPERTY);
+    }
+
+    @Test
+    void everyShardAgreesOnTheOwner() {
+        var rings = SHARDS.stream().map(self -> new ShardRing(SHARDS, self)).toList();
+        var random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            var id = new UUID(random.nextLong(), random.nextLong());
+            var owner = rings.get(0).ownerOf(id);
+            for (var ring : rings) {
+                assertEquals(owner, ring.ownerOf(id));
+                assertEquals(owner.equals(ring.self()), ring.isLocal(id));
+            }
+        }
+    }
+
+    @Test
+    void sharesOutRandomAndSequentialIDsEvenly() {
+        var ring = new ShardRing(SHARDS, SHARDS.get(0));
+        var random = new Random(2);
+        var randomShares = new int[SHARDS.size()];
+        var sequentialShares = new int[SHARDS.size()];
+        for (int i = 0; i < IDS; i++) {
+            randomShares[ring.owner(new UUID(random.nextLong(), random.nextLong()))]++;
+            sequentialShares[ring.owner(new UUID(0, i))]++;
+        }
+        for (int shard = 0; shard < SHARDS.size(); shard++) {
+            assertEven(randomShares[shard]);
+            assertEven(sequentialShares[shard]);
+        }
+    }
+
+    @Test
+    void aNewShardOnlyTakesIDsOver() {
+        var before = new ShardRing(SHARDS, SHARDS.get(0));
+        var added = "http://d:8080/api";
+        var after = new ShardRing(List.of(SHARDS.get(0), SHARDS.get(1), SHARDS.get(2), added), SHARDS.get(0));
+        var random = new Random(3);
+        int moved = 0;
+        for (int i = 0; i < IDS; i++) {
+            var id = new UUID(random.nextLong(), random.nextLong());
+            if (!before.ownerOf(id).equals(after.ownerOf(id))) {
+                assertEquals(added, after.ownerOf(id));
+                moved++;
+            }
+        }
+        assertTrue(moved > IDS / 5 && moved < IDS * 3 / 10, moved + " moved");
+    }
+
+    @Test
+    void makesLocalIDs() {
+        for (var self : SHARDS) {
+            var ring = new ShardRing(SHARDS, self);
+            for (int i = 0; i < 100; i++) {
+                assertTrue(ring.isLocal(ring.newID()));
+            }
+        }
+    }
+
+    @Test
+    void readsTheListLeniently() {
+        var ring = new ShardRing(List.of(" http://a:8080/api/", "http://b:8080/api", "http://a:8080/api"),
+                "http://b:8080/api/");
+        assertEquals(List.of("http://a:8080/api", "http://b:8080/api"), ring.shards());
+        assertEquals("http://b:8080/api", ring.self());
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(SHARDS, "http://d:8080/api"));
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(List.of(), "http://a:8080/api"));
+    }
+
+    @Test
+    void isConfiguredBySystemProperties() {
+        assertNull(ShardRing.configured());
+        System.setProperty(ShardRing.SHARDS_PROPERTY, "http://a:8080/api");
+        System.setProperty(ShardRing.SELF_PROPERTY, "http://a:8080/api");
+        assertNull(ShardRing.configured());
+
+        System.setProperty(ShardRing.SHARDS_PROPERTY, String.join(",", SHARDS));
+        assertThrows(IllegalArgumentException.class, ShardRing::configured);
+        System.setProperty(ShardRing.KEY_PROPERTY, "secret");
+        var ring = ShardRing.configured();
+        assertNotNull(ring);
+        assertEquals(SHARDS, ring.shards());
+
+        System.clearProperty(ShardRing.SELF_PROPERTY);
+        assertThrows(IllegalArgumentException.class, ShardRing::configured);
+    }
+
+    // within a fifth of a third
+    private static void assertEven(int share) {
+        int fair = IDS / SHARDS.size();
+        assertTrue(Math.abs(share - fair) < fair / 5, share + " of " + IDS);
+    }
+}
@@ -0,0 +1,132 @@
+package ch.unil.furrybuddy.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Deletes only: their records carry no JSON, so the frames have a known size
+class WriteAheadLogTest {
+
+    // int length | int crc32 | long seq | byte op | byte type | long msb | long lsb
+    private static final int DELETE_FRAME = Integer.BYTES * 2 + Long.BYTES + 2 + Long.BYTES * 2;
+
+    @TempDir
+    Path directory;
+
+    private final List<UUID> replayed = new ArrayList<>();
+
+    @Test
+    void replaysEveryRecordAfterARestart() {
+        var ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        try (var wal = open()) {
+            ids.forEach(id -> wal.delete(EntityType.PET, id));
+        }
+        try (var wal = open()) {
+            assertEquals(ids, replayed);
+        }
+    }
+
+    @Test
+    void dropsATornTailAndKeepsWhatIsWrittenAfterIt() throws IOException {
+        var first = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        try (var wal = open()) {
+            first.forEach(id -> wal.delete(EntityType.ADOPTER, id));
+        }
+        // the restart opens the segment the next records go to; a crash leaves half a frame in it
+        try (var wal = open()) {
+            assertEquals(first, replayed);
+        }
+        var newest = newestSegment();
+        appendTornFrame(newest);
+
+        replayed.clear();
+        var later = UUID.randomUUID();
+        try (var wal = open()) {
+            assertEquals(first, replayed);
+            assertEquals(0, Files.size(newest));
+            wal.delete(EntityType.ADOPTER, later);
+        }
+        replayed.clear();
+        try (var wal = open()) {
+            assertEquals(List.of(first.get(0), first.get(1), first.get(2), later), replayed);
+        }
+    }
+
+    @Test
+    void stopsAtAFrameWhoseChecksumDoesNotMatch() throws IOException {
+        var ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        try (var wal = open()) {
+            ids.forEach(id -> wal.delete(EntityType.PET_OWNER, id));
+        }
+        var segment = newestSegment();
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // a bit of the second frame's ID
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), DELETE_FRAME + DELETE_FRAME - 1);
+        }
+        try (var wal = open()) {
+            assertEquals(List.of(ids.get(0)), replayed);
+            assertEquals(DELETE_FRAME, Files.size(segment));
+        }
+    }
+
+    @Test
+    void refusesWritesOnceClosed() {
+        var wal = open();
+        wal.close();
+        assertThrows(IllegalStateException.class, wal::checkWritable);
+        assertThrows(IllegalStateException.class, () -> wal.delete(EntityType.PET, UUID.randomUUID()));
+    }
+
+    @Test
+    void hasNothingToRecoverInAnEmptyDirectory() {
+        try (var wal = new WriteAheadLog(directory, Long.MAX_VALUE, sink -> { })) {
+            assertFalse(wal.recover(snapshot -> fail("There is no snapshot!"), this::replay));
+        }
+    }
+
+    private WriteAheadLog open() {
+        var wal = new WriteAheadLog(directory, Long.MAX_VALUE, sink -> { });
+        wal.recover(snapshot -> fail("There is no snapshot!"), this::replay);
+        return wal;
+    }
+
+    private void replay(EntityType type, UUID id, Object entity, boolean closed) {
+        assertNull(entity);
+        assertFalse(closed);
+        replayed.add(id);
+    }
+
+    private Path newestSegment() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .max(Path::compareTo)
+                    .orElseThrow();
+        }
+    }
+
+    private static void appendTornFrame(Path segment) throws IOException {
+        var torn = ByteBuffer.allocate(Integer.BYTES * 2 + 10)
+                .putInt(DELETE_FRAME - Integer.BYTES * 2)
+                .putInt(0)
+                .put(new byte[10])
+                .flip();
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(torn);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ch.unil.furrybuddy.rest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControlTest {
+
+    private static final long INTERVAL = 100_000_000;
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty(AdmissionControl.RATE_PROPERTY);
+        System.clearProperty(AdmissionControl.BURST_PROPERTY);
+        System.clearProperty(AdmissionControl.CLIENTS_PROPERTY);
+        System.clearProperty(AdmissionControl.MAX_CONCURRENCY_PROPERTY);
+    }
+
+    @Test
+    void letsABurstThroughThenOneRequestPerInterval() {
+        var admission = limited();
+        long now = 1_000_000_000_000L;
+        var client = admission.client("alice", now);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, admission.take(client, now));
+        }
+        assertEquals(INTERVAL, admission.take(client, now));
+        assertEquals(INTERVAL / 2, admission.take(client, now + INTERVAL / 2));
+        assertEquals(0, admission.take(client, now + INTERVAL));
+        assertEquals(INTERVAL, admission.take(client, now + INTERVAL));
+        // a long pause fills the bucket up to the burst, not beyond
+        long later = now + 60 * INTERVAL;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, admission.take(client, later));
+        }
+        assertEquals(INTERVAL, admission.take(client, later));
+    }
+
+    @Test
+    void keepsClientsApart() {
+        var admission = limited();
+        long now = 1_000_000_000_000L;
+        var alice = admission.client("alice", now);
+        for (int i = 0; i < 5; i++) {
+            admission.take(alice, now);
+        }
+        assertSame(alice, admission.client("alice", now));
+        assertEquals(0, admission.take(admission.client("bob", now), now));
+    }
+
+    @Test
+    void reusesTheSlotsOfIdleClients() {
+        System.setProperty(AdmissionControl.CLIENTS_PROPERTY, "8");
+        var admission = limited();
+        long now = 1_000_000_000_000L;
+        for (int i = 0; i < 8; i++) {
+            var client = admission.client("client " + i, now);
+            assertNotNull(client);
+            admission.take(client, now);
+        }
+        // every slot holds a client whose bucket is not full again yet
+        assertNull(admission.client("newcomer", now));
+        assertNotNull(admission.client("newcomer", now + INTERVAL));
+    }
+
+    @Test
+    void growsTheLimitWhileItIsInUseAndLatencyHolds() throws NoSuchMethodException {
+        var admission = new AdmissionControl();
+        var endpoint = admission.endpoint(method());
+        assertEquals(100, endpoint.limit());
+        for (int i = 0; i < 100; i++) {
+            admission.adapt(endpoint, 1000, endpoint.limit());
+        }
+        assertTrue(endpoint.limit() > 100, "limit " + endpoint.limit());
+    }
+
+    @Test
+    void leavesAnUnusedLimitAlone() throws NoSuchMethodException {
+        var admission = new AdmissionControl();
+        var endpoint = admission.endpoint(method());
+        for (int i = 0; i < 100; i++) {
+            admission.adapt(endpoint, 1000, 10);
+        }
+        assertEquals(100, endpoint.limit());
+    }
+
+    @Test
+    void shrinksTheLimitWhenLatencyRises() throws NoSuchMethodException {
+        var admission = new AdmissionControl();
+        var endpoint = admission.endpoint(method());
+        for (int i = 0; i < 100; i++) {
+            admission.adapt(endpoint, 1000, 10);
+        }
+        for (int i = 0; i < 20; i++) {
+            admission.adapt(endpoint, 10_000, endpoint.limit());
+        }
+        assertTrue(endpoint.limit() < 100, "limit " + endpoint.limit());
+    }
+
+    @Test
+    void keepsTheLimitWithinItsBounds() throws NoSuchMethodException {
+        System.setProperty(AdmissionControl.MAX_CONCURRENCY_PROPERTY, "120");
+        var admission = new AdmissionControl();
+        var endpoint = admission.endpoint(method());
+        for (int i = 0; i < 1000; i++) {
+            admission.adapt(endpoint, 1000, endpoint.limit());
+        }
+        assertEquals(120, endpoint.limit());
+        double latency = 1000;
+        for (int i = 0; i < 1000; i++) {
+            latency *= 1.1;
+            admission.adapt(endpoint, latency, endpoint.limit());
+        }
+        assertEquals(8, endpoint.limit());
+    }
+
+    // 10 requests a second, in bursts of up to 5
+    private static AdmissionControl limited() {
+        System.setProperty(AdmissionControl.RATE_PROPERTY, "10");
+        System.setProperty(AdmissionControl.BURST_PROPERTY, "5");
+        return new AdmissionControl();
+    }
+
+    private static Method method() throws NoSuchMethodException {
+        return Object.class.getMethod("toString");
+    }
+}
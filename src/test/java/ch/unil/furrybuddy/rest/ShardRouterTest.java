@@ -0,0 +1,55 @@
+package ch.unil.furrybuddy.rest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ShardRouterTest {
+
+    private static final UUID ID = UUID.fromString("6f1c1c9e-8c3a-4d6a-9a52-0b5f3e2d7c11");
+
+    @Test
+    void findsTheKeyInTheBody() {
+        assertEquals(ID, ShardRouter.bodyKey(json("{\"requestID\":\"" + ID + "\",\"status\":\"PENDING\"}"),
+                new String[]{"requestID"}));
+        assertEquals(ID, ShardRouter.bodyKey(json("{\"advertisement\":{\"advertisementID\":\"" + ID
+                + "\",\"pet\":{}},\"adopter\":{}}"), new String[]{"advertisement", "advertisementID"}));
+    }
+
+    @Test
+    void hasNoKeyForABodyWithoutOne() {
+        var path = new String[]{"advertisement", "advertisementID"};
+        assertNull(ShardRouter.bodyKey(json("{\"advertisement\":{}}"), path));
+        assertNull(ShardRouter.bodyKey(json("{\"advertisement\":\"" + ID + "\"}"), path));
+        assertNull(ShardRouter.bodyKey(json("{\"advertisement\":{\"advertisementID\":42}}"), path));
+        assertNull(ShardRouter.bodyKey(json("{\"advertisement\":{\"advertisementID\":\"not an ID\"}}"), path));
+        assertNull(ShardRouter.bodyKey(json("{\"advertisement\":"), path));
+        assertNull(ShardRouter.bodyKey(json("[]"), path));
+        assertNull(ShardRouter.bodyKey(new byte[0], path));
+    }
+
+    @Test
+    void takesTheOwningShardsAnswerToALogin() {
+        var unknown = answer(401);
+        var signedIn = answer(200);
+        var busy = answer(503);
+        assertSame(signedIn, ShardRouter.first(List.of(unknown, busy, signedIn)));
+        assertSame(busy, ShardRouter.first(List.of(unknown, busy, answer(401))));
+        assertSame(unknown, ShardRouter.first(List.of(unknown, answer(401))));
+    }
+
+    private static ShardClient.Answer answer(int status) {
+        return new ShardClient.Answer(status, new byte[0], Map.of());
+    }
+
+    private static byte[] json(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,58 @@
+package ch.unil.furrybuddy.rest;
+
+import ch.unil.furrybuddy.domain.ApplicationState;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersionsTest {
+
+    private final ApplicationState state = new ApplicationState();
+
+    @Test
+    void matchesTheTagsItHandsOut() {
+        var tag = Versions.tag(state, 7);
+        assertFalse(tag.isWeak());
+        var expected = Versions.expectedVersion(state, "\"" + tag.getValue() + "\"");
+        assertTrue(expected.test(7));
+        assertFalse(expected.test(8));
+        assertFalse(expected.test(6));
+    }
+
+    @Test
+    void acceptsAnyOfSeveralTags() {
+        var expected = Versions.expectedVersion(state, quoted(3) + ", " + quoted(12));
+        assertTrue(expected.test(3));
+        assertTrue(expected.test(12));
+        assertFalse(expected.test(4));
+    }
+
+    @Test
+    void refusesWeakTagsAndTagsOfAnotherRun() {
+        assertFalse(Versions.expectedVersion(state, "W/" + quoted(5)).test(5));
+        var earlier = "\"" + Long.toHexString(state.getEpoch() + 1) + "-5\"";
+        assertFalse(Versions.expectedVersion(state, earlier).test(5));
+        assertFalse(Versions.expectedVersion(state, "\"5\"").test(5));
+        assertFalse(Versions.expectedVersion(state, "\"" + Long.toHexString(state.getEpoch()) + "-\"").test(5));
+        assertFalse(Versions.expectedVersion(state, "\"" + Long.toHexString(state.getEpoch()) + "-x\"").test(5));
+    }
+
+    @Test
+    void aStarMatchesEveryVersion() {
+        var expected = Versions.expectedVersion(state, "*");
+        assertTrue(expected.test(0));
+        assertTrue(expected.test(Long.MAX_VALUE));
+    }
+
+    @Test
+    void noIfMatchExpectsNothing() {
+        assertNull(Versions.expectedVersion(state, null));
+        assertNull(Versions.expectedVersion(state, " "));
+    }
+
+    private String quoted(long version) {
+        return "\"" + Versions.tag(state, version).getValue() + "\"";
+    }
+}